@@ -0,0 +1,163 @@
+import java.util.Arrays;
+
+/**
+ * Open-addressing map from an address to a symbol or label name, without boxing the keys.
+ * Addresses are compared as unsigned values by {@link #floor}.
+ */
+final class AddressMap {
+    private static final int EMPTY = -1;
+
+    private int[] keys;
+    private String[] values;
+    private int size;
+    private int[] sorted;
+
+    AddressMap() {
+        this(64);
+    }
+
+    AddressMap(int expected) {
+        int capacity = Integer.highestOneBit(Math.max(4, expected * 2 - 1)) << 1;
+        keys = new int[capacity];
+        values = new String[capacity];
+    }
+
+    private AddressMap(AddressMap other) {
+        keys = other.keys.clone();
+        values = other.values.clone();
+        size = other.size;
+        sorted = other.sorted;
+    }
+
+    /**
+     * An independent map with the same entries.
+     */
+    AddressMap copy() {
+        return new AddressMap(this);
+    }
+
+    int size() {
+        return size;
+    }
+
+    String get(int addr) {
+        int slot = find(addr);
+        return slot == EMPTY ? null : values[slot];
+    }
+
+    boolean containsKey(int addr) {
+        return find(addr) != EMPTY;
+    }
+
+    void put(int addr, String name) {
+        int slot = slot(addr);
+        if (values[slot] == null) {
+            insert(slot, addr, name);
+        } else {
+            values[slot] = name;
+        }
+    }
+
+    /**
+     * Adds {@code name} unless {@code addr} already has one; returns whether it was added.
+     */
+    boolean putIfAbsent(int addr, String name) {
+        int slot = slot(addr);
+        if (values[slot] != null) {
+            return false;
+        }
+        insert(slot, addr, name);
+        return true;
+    }
+
+    /**
+     * Position of the greatest address {@code <= addr} among the sorted entries, or -1 if there is none.
+     * The entry itself is read with {@link #keyAt} and {@link #valueAt}.
+     */
+    int floor(int addr) {
+        int[] order = sortedSlots();
+        int lo = 0;
+        int hi = order.length - 1;
+        int ans = -1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (Integer.compareUnsigned(keys[order[mid]], addr) <= 0) {
+                ans = mid;
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return ans;
+    }
+
+    int keyAt(int position) {
+        return keys[sortedSlots()[position]];
+    }
+
+    String valueAt(int position) {
+        return values[sortedSlots()[position]];
+    }
+
+    private int[] sortedSlots() {
+        if (sorted == null) {
+            long[] packed = new long[size];
+            int k = 0;
+            for (int slot = 0; slot < keys.length; slot++) {
+                if (values[slot] != null) {
+                    // flipping the sign bit makes the signed sort order the unsigned address order
+                    packed[k++] = ((long) (keys[slot] ^ Integer.MIN_VALUE) << 32) | slot;
+                }
+            }
+            Arrays.sort(packed);
+            sorted = new int[size];
+            for (int i = 0; i < size; i++) {
+                sorted[i] = (int) packed[i];
+            }
+        }
+        return sorted;
+    }
+
+    private void insert(int slot, int addr, String name) {
+        keys[slot] = addr;
+        values[slot] = name;
+        size++;
+        sorted = null;
+        if (size * 2 > keys.length) {
+            grow();
+        }
+    }
+
+    private int find(int addr) {
+        int slot = slot(addr);
+        return values[slot] == null ? EMPTY : slot;
+    }
+
+    private int slot(int addr) {
+        int mask = keys.length - 1;
+        int slot = hash(addr) & mask;
+        while (values[slot] != null && keys[slot] != addr) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private static int hash(int addr) {
+        int h = addr * 0x9e3779b9;
+        return h ^ (h >>> 16);
+    }
+
+    private void grow() {
+        int[] oldKeys = keys;
+        String[] oldValues = values;
+        keys = new int[oldKeys.length * 2];
+        values = new String[oldValues.length * 2];
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldValues[i] != null) {
+                int slot = slot(oldKeys[i]);
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+}
@@ -0,0 +1,185 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Disassembles many ELF files in one JVM. Inputs are a directory, a glob such as
+ * {@code build/*.o}, or a manifest {@code @list.txt} with one {@code input [output]} per line.
+ * At most {@code parallelism} files are processed at a time, a failed file does not stop the others.
+ * A directory or glob only yields ELF files, so the listings a previous run wrote next to its inputs are skipped.
+ */
+public final class BatchDisassembler {
+    public record Job(Path input, Path output) {
+    }
+
+    public record Failure(Path input, Exception error) {
+    }
+
+    private static final byte[] ELF_MAGIC = {0x7f, 'E', 'L', 'F'};
+
+    private final ElfParser parser;
+    private final int parallelism;
+
+    public BatchDisassembler(ElfParser parser, int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("parallelism must be positive: " + parallelism);
+        }
+        this.parser = parser;
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * Expands {@code source} into jobs. Outputs not given by a manifest are named {@code <input name>.txt},
+     * next to the input when {@code outputDir} is null. In {@code outputDir} they keep the path of the input
+     * below the directory or the part of the glob before its first wildcard, so inputs with the same name
+     * in different subdirectories do not share an output.
+     */
+    public static List<Job> jobs(String source, Path outputDir) throws IOException {
+        List<Job> jobs = new ArrayList<>();
+        if (source.startsWith("@")) {
+            for (String line : Files.readAllLines(Path.of(source.substring(1)))) {
+                String[] parts = line.trim().split("\\s+");
+                if (parts[0].isEmpty() || parts[0].startsWith("#")) {
+                    continue;
+                }
+                Path input = Path.of(parts[0]);
+                jobs.add(new Job(input, parts.length > 1 ? Path.of(parts[1]) : outputFor(input, input.getFileName(), outputDir)));
+            }
+            return jobs;
+        }
+        List<Path> inputs = new ArrayList<>();
+        Path path = Path.of(source);
+        Path base = null;
+        if (globStart(source) >= 0) {
+            base = globBase(source);
+            PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + source);
+            try (Stream<Path> files = Files.walk(base)) {
+                files.filter(p -> Files.isRegularFile(p) && matcher.matches(p) && isElf(p)).forEach(inputs::add);
+            }
+        } else if (Files.isDirectory(path)) {
+            base = path;
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(path, p -> Files.isRegularFile(p) && isElf(p))) {
+                files.forEach(inputs::add);
+            }
+        } else {
+            inputs.add(path);
+        }
+        Collections.sort(inputs);
+        for (Path input : inputs) {
+            jobs.add(new Job(input, outputFor(input, base == null ? input.getFileName() : base.relativize(input), outputDir)));
+        }
+        return jobs;
+    }
+
+    /**
+     * Runs all jobs and returns the ones that failed, in job order. A job whose output an earlier job
+     * already writes fails without running, instead of the two overwriting each other.
+     */
+    public List<Failure> run(List<Job> jobs) throws InterruptedException {
+        Failure[] failures = new Failure[jobs.size()];
+        Map<Path, Path> outputs = new HashMap<>();
+        Semaphore permits = new Semaphore(parallelism);
+        ExecutorService executor = newExecutor(parallelism);
+        try {
+            for (int i = 0; i < jobs.size(); i++) {
+                Job job = jobs.get(i);
+                int index = i;
+                Path first = outputs.putIfAbsent(job.output().toAbsolutePath().normalize(), job.input());
+                if (first != null) {
+                    failures[index] = new Failure(job.input(), new IOException("output " + job.output()
+                            + " is already written for " + first));
+                    continue;
+                }
+                permits.acquire();
+                executor.execute(() -> {
+                    try {
+                        Path parent = job.output().getParent();
+                        if (parent != null) {
+                            Files.createDirectories(parent);
+                        }
+                        parser.disassemble(job.input().toString(), job.output().toString());
+                    } catch (IOException | RuntimeException e) {
+                        failures[index] = new Failure(job.input(), e);
+                    } finally {
+                        permits.release();
+                    }
+                });
+            }
+        } finally {
+            executor.shutdown();
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        }
+        List<Failure> result = new ArrayList<>();
+        for (Failure failure : failures) {
+            if (failure != null) {
+                result.add(failure);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * A virtual thread per file where the JVM has them (Java 21+), a fixed pool of platform threads otherwise.
+     */
+    private static ExecutorService newExecutor(int parallelism) {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newFixedThreadPool(parallelism);
+        }
+    }
+
+    /**
+     * {@code <input name>.txt} next to the input, or {@code <relative>.txt} in {@code outputDir}.
+     */
+    private static Path outputFor(Path input, Path relative, Path outputDir) {
+        return outputDir != null ? outputDir.resolve(relative + ".txt") : input.resolveSibling(input.getFileName() + ".txt");
+    }
+
+    /**
+     * Whether {@code file} starts with the ELF magic; a file that cannot be read is kept, so that its error is reported.
+     */
+    private static boolean isElf(Path file) {
+        byte[] magic = new byte[4];
+        try (InputStream in = Files.newInputStream(file)) {
+            return in.readNBytes(magic, 0, 4) == 4 && Arrays.equals(magic, ELF_MAGIC);
+        } catch (IOException e) {
+            return true;
+        }
+    }
+
+    private static int globStart(String source) {
+        for (int i = 0; i < source.length(); i++) {
+            if ("*?[{".indexOf(source.charAt(i)) >= 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Directory part of a glob before its first wildcard; walking it yields paths the glob can match.
+     */
+    private static Path globBase(String glob) {
+        int slash = glob.lastIndexOf('/', globStart(glob));
+        if (slash < 0) {
+            return Path.of("");
+        }
+        return Path.of(slash == 0 ? "/" : glob.substring(0, slash));
+    }
+}
@@ -0,0 +1,472 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Compact binary listing: fixed-width instruction records, an interned string table and two
+ * sorted indexes in the footer, so a reader can map the file and find an address or a symbol
+ * with a binary search. All numbers are little-endian.
+ * <pre>
+ * header   magic "RVDB", version, record count, record size, mnemonic count, string count,
+ *          offsets of records, strings, address index and symbol index, symbol count, flags (1 for RV64)
+ * records  address, code, op (u16), rd, rs1, rs2 (u8, 0xff if none), length (u8, 2 or 4 bytes),
+ *          operand format (u8, a DecodeTable.FMT_* value), 1 spare byte, imm, label string id,
+ *          target string id (-1 if none); the code of a compressed instruction is its 16 bits,
+ *          op and registers are those of its 32-bit form
+ * strings  count + 1 offsets into the UTF-8 data that follows; ids below the mnemonic count are
+ *          the mnemonics of the op ids, the rest are symbol and label names
+ * </pre>
+ * A record is printed from its own fields and the file's mnemonics, so a listing renders the same
+ * after instruction ids are renumbered. The reader checks the header and the string table when it
+ * opens a file and every entry it reads after that, and throws an IOException for a corrupt one.
+ * <pre>
+ * index    (address, record) sorted by unsigned address
+ * symbols  (string id, address) sorted by name bytes
+ * </pre>
+ */
+final class BinaryListing {
+    private static final int MAGIC = 0x42445652;
+    private static final int VERSION = 4;
+    private static final int FLAG_RV64 = 1;
+    private static final int HEADER_SIZE = 64;
+    static final int RECORD_SIZE = 28;
+
+    private BinaryListing() {
+
+    }
+
+    /**
+     * Writes records in the order they are added and the indexes on {@link #close()}.
+     * All labels must already be in {@code names}.
+     */
+    static final class Writer implements Closeable {
+        private final FileChannel channel;
+        private final AddressMap names;
+        private final Isa isa;
+        private final int[] ids;
+        private final byte[][] strings;
+        private final int mnemonicCount;
+        private final ByteBuffer buffer = ByteBuffer.allocate(ListingWriter.BLOCK_SIZE / RECORD_SIZE * RECORD_SIZE)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        private long position = HEADER_SIZE;
+        private int count;
+        private int lastAddress;
+        private boolean sorted = true;
+
+        Writer(Path output, AddressMap names, Isa isa) throws IOException {
+            this.names = names;
+            this.isa = isa;
+            this.mnemonicCount = DecodeTable.count();
+            Map<String, Integer> interned = new HashMap<>();
+            byte[][] table = new byte[mnemonicCount + names.size()][];
+            for (int op = 0; op < mnemonicCount; op++) {
+                table[op] = DecodeTable.MNEMONIC[op].getBytes(StandardCharsets.UTF_8);
+            }
+            int stringCount = mnemonicCount;
+            ids = new int[names.size()];
+            for (int p = 0; p < names.size(); p++) {
+                Integer id = interned.get(names.valueAt(p));
+                if (id == null) {
+                    id = stringCount;
+                    interned.put(names.valueAt(p), id);
+                    table[stringCount++] = names.valueAt(p).getBytes(StandardCharsets.UTF_8);
+                }
+                ids[p] = id;
+            }
+            strings = Arrays.copyOf(table, stringCount);
+            channel = FileChannel.open(output, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ);
+        }
+
+        void add(int addr, int code, int length, int op, int imm) throws IOException {
+            if (!buffer.hasRemaining()) {
+                flush();
+            }
+            byte format = DecodeTable.FORMAT[op];
+            int word = length == 2 ? isa.expand(code) : code;
+            buffer.putInt(addr).putInt(code).putShort((short) op)
+                    .put((byte) DecodeTable.rdOf(format, word))
+                    .put((byte) DecodeTable.rs1Of(format, word))
+                    .put((byte) DecodeTable.rs2Of(format, word))
+                    .put((byte) length).put(format).put((byte) 0)
+                    .putInt(imm)
+                    .putInt(nameId(addr))
+                    .putInt(DecodeTable.isJump(format) ? nameId(addr + imm) : -1);
+            if (count > 0 && Integer.compareUnsigned(addr, lastAddress) <= 0) {
+                sorted = false;
+            }
+            lastAddress = addr;
+            count++;
+        }
+
+        private int nameId(int addr) {
+            return names.get(addr) == null ? -1 : ids[names.floor(addr)];
+        }
+
+        private void flush() throws IOException {
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                position += channel.write(buffer, position);
+            }
+            buffer.clear();
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                flush();
+                long stringsOffset = position;
+                writeStrings();
+                long indexOffset = position;
+                writeAddressIndex();
+                long symbolsOffset = position;
+                writeSymbolIndex();
+                ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+                header.putInt(MAGIC).putInt(VERSION).putInt(count).putInt(RECORD_SIZE)
+                        .putInt(mnemonicCount).putInt(strings.length)
+                        .putLong(HEADER_SIZE).putLong(stringsOffset).putLong(indexOffset).putLong(symbolsOffset)
+                        .putInt(ids.length).putInt(isa.rv64 ? FLAG_RV64 : 0).flip();
+                channel.write(header, 0);
+            } finally {
+                channel.close();
+            }
+        }
+
+        private void writeStrings() throws IOException {
+            int offset = 0;
+            for (byte[] s : strings) {
+                putInt(offset);
+                offset += s.length;
+            }
+            putInt(offset);
+            for (byte[] s : strings) {
+                int k = 0;
+                while (k < s.length) {
+                    if (!buffer.hasRemaining()) {
+                        flush();
+                    }
+                    int n = Math.min(buffer.remaining(), s.length - k);
+                    buffer.put(s, k, n);
+                    k += n;
+                }
+            }
+            flush();
+        }
+
+        /**
+         * Records written in address order are their own index and are streamed back from the file;
+         * otherwise the (address, record) pairs are sorted in memory.
+         */
+        private void writeAddressIndex() throws IOException {
+            ByteBuffer records = ByteBuffer.allocate(ListingWriter.BLOCK_SIZE / RECORD_SIZE * RECORD_SIZE)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            long[] pairs = sorted ? null : new long[count];
+            for (int first = 0; first < count; first += records.capacity() / RECORD_SIZE) {
+                int n = Math.min(records.capacity() / RECORD_SIZE, count - first);
+                records.clear().limit(n * RECORD_SIZE);
+                long at = HEADER_SIZE + (long) first * RECORD_SIZE;
+                while (records.hasRemaining()) {
+                    at += channel.read(records, at);
+                }
+                for (int k = 0; k < n; k++) {
+                    int addr = records.getInt(k * RECORD_SIZE);
+                    if (sorted) {
+                        putInt(addr);
+                        putInt(first + k);
+                    } else {
+                        pairs[first + k] = ((long) (addr ^ Integer.MIN_VALUE) << 32) | (first + k);
+                    }
+                }
+            }
+            if (!sorted) {
+                Arrays.sort(pairs);
+                for (long pair : pairs) {
+                    putInt((int) (pair >>> 32) ^ Integer.MIN_VALUE);
+                    putInt((int) pair);
+                }
+            }
+            flush();
+        }
+
+        private void writeSymbolIndex() throws IOException {
+            Integer[] order = new Integer[ids.length];
+            for (int p = 0; p < order.length; p++) {
+                order[p] = p;
+            }
+            Arrays.sort(order, (a, b) -> {
+                int cmp = Arrays.compareUnsigned(strings[ids[a]], strings[ids[b]]);
+                return cmp != 0 ? cmp : Integer.compareUnsigned(names.keyAt(a), names.keyAt(b));
+            });
+            for (int p : order) {
+                putInt(ids[p]);
+                putInt(names.keyAt(p));
+            }
+            flush();
+        }
+
+        private void putInt(int value) throws IOException {
+            if (buffer.remaining() < 4) {
+                flush();
+            }
+            buffer.putInt(value);
+        }
+    }
+
+    /**
+     * Read access to a mapped binary listing.
+     */
+    static final class Reader {
+        private final ByteBuffer data;
+        private final int count;
+        private final int mnemonicCount;
+        private final int stringCount;
+        private final int records;
+        private final int strings;
+        private final int stringData;
+        private final int index;
+        private final int symbols;
+        private final int symbolCount;
+        private final String[] decoded;
+
+        Reader(ByteBuffer data) throws IOException {
+            this.data = data.order(ByteOrder.LITTLE_ENDIAN);
+            int limit = data.limit();
+            if (limit < HEADER_SIZE || data.getInt(0) != MAGIC) {
+                throw new IOException("not a binary listing");
+            }
+            if (data.getInt(4) != VERSION || data.getInt(12) != RECORD_SIZE) {
+                throw new IOException("unsupported binary listing version " + data.getInt(4));
+            }
+            count = data.getInt(8);
+            mnemonicCount = data.getInt(16);
+            stringCount = data.getInt(20);
+            symbolCount = data.getInt(56);
+            if (count < 0 || mnemonicCount < 0 || stringCount < mnemonicCount || symbolCount < 0) {
+                throw corrupt("header counts " + count + " records, " + mnemonicCount + " mnemonics, "
+                        + stringCount + " strings, " + symbolCount + " symbols");
+            }
+            records = section(data.getLong(24), HEADER_SIZE, (long) count * RECORD_SIZE, limit, "records");
+            strings = section(data.getLong(32), records + (long) count * RECORD_SIZE, (stringCount + 1L) * 4, limit, "strings");
+            stringData = strings + (stringCount + 1) * 4;
+            index = section(data.getLong(40), stringData, (long) count * 8, limit, "address index");
+            symbols = section(data.getLong(48), index + (long) count * 8, (long) symbolCount * 8, limit, "symbol index");
+            int previous = 0;
+            for (int id = 0; id <= stringCount; id++) {
+                int offset = data.getInt(strings + id * 4);
+                if (offset < previous || (id == 0 && offset != 0) || offset > index - stringData) {
+                    throw corrupt("string offset " + id + " is 0x" + Integer.toHexString(offset));
+                }
+                previous = offset;
+            }
+            decoded = new String[stringCount];
+        }
+
+        /**
+         * Checks that a part of {@code size} bytes at {@code offset} starts after the previous one, which ends
+         * at {@code from}, and fits in the file; returns the offset.
+         */
+        private static int section(long offset, long from, long size, int limit, String name) throws IOException {
+            if (offset < from || offset > limit || size > limit - offset) {
+                throw corrupt(name + " at 0x" + Long.toHexString(offset) + " do not fit in the file of 0x"
+                        + Integer.toHexString(limit) + " bytes");
+            }
+            return (int) offset;
+        }
+
+        private static IOException corrupt(String problem) {
+            return new IOException("corrupt binary listing: " + problem);
+        }
+
+        static Reader open(String file) throws IOException {
+            return new Reader(ElfLoader.map(file));
+        }
+
+        int size() {
+            return count;
+        }
+
+        int address(int r) {
+            return data.getInt(records + r * RECORD_SIZE);
+        }
+
+        int code(int r) {
+            return data.getInt(records + r * RECORD_SIZE + 4);
+        }
+
+        int op(int r) {
+            return data.getShort(records + r * RECORD_SIZE + 8) & 0xffff;
+        }
+
+        int rd(int r) {
+            return data.get(records + r * RECORD_SIZE + 10);
+        }
+
+        int rs1(int r) {
+            return data.get(records + r * RECORD_SIZE + 11);
+        }
+
+        int rs2(int r) {
+            return data.get(records + r * RECORD_SIZE + 12);
+        }
+
+        int length(int r) {
+            return data.get(records + r * RECORD_SIZE + 13);
+        }
+
+        byte format(int r) {
+            return data.get(records + r * RECORD_SIZE + 14);
+        }
+
+        int imm(int r) {
+            return data.getInt(records + r * RECORD_SIZE + 16);
+        }
+
+        /**
+         * String id of the label at the record's address, or -1.
+         */
+        int label(int r) {
+            return data.getInt(records + r * RECORD_SIZE + 20);
+        }
+
+        /**
+         * String id of the label at the jump target, or -1.
+         */
+        int target(int r) {
+            return data.getInt(records + r * RECORD_SIZE + 24);
+        }
+
+        /**
+         * The mnemonic of the record, from the string table of the file.
+         */
+        String mnemonic(int r) throws IOException {
+            if (op(r) >= mnemonicCount) {
+                throw corrupt("record " + r + " has op " + op(r) + ", there are " + mnemonicCount + " mnemonics");
+            }
+            return string(op(r));
+        }
+
+        String string(int id) throws IOException {
+            if (id < 0) {
+                return null;
+            }
+            if (id >= stringCount) {
+                throw corrupt("string " + id + " of " + stringCount);
+            }
+            if (decoded[id] == null) {
+                decoded[id] = new String(bytes(id), StandardCharsets.UTF_8);
+            }
+            return decoded[id];
+        }
+
+        private byte[] bytes(int id) {
+            int start = data.getInt(strings + id * 4);
+            byte[] bytes = new byte[data.getInt(strings + id * 4 + 4) - start];
+            data.get(stringData + start, bytes);
+            return bytes;
+        }
+
+        /**
+         * Record of the instruction at {@code address}, or -1.
+         */
+        int find(int address) throws IOException {
+            int lo = 0;
+            int hi = count - 1;
+            while (lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                int cmp = Integer.compareUnsigned(data.getInt(index + mid * 8), address);
+                if (cmp == 0) {
+                    int r = data.getInt(index + mid * 8 + 4);
+                    if (r < 0 || r >= count) {
+                        throw corrupt("address index entry " + mid + " points to record " + r + " of " + count);
+                    }
+                    return r;
+                }
+                if (cmp < 0) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid - 1;
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * Record at the address of the symbol or label called {@code name}, or -1.
+         */
+        int findSymbol(String name) throws IOException {
+            byte[] key = name.getBytes(StandardCharsets.UTF_8);
+            int lo = 0;
+            int hi = symbolCount - 1;
+            while (lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                int id = data.getInt(symbols + mid * 8);
+                if (id < 0 || id >= stringCount) {
+                    throw corrupt("symbol index entry " + mid + " has string " + id + " of " + stringCount);
+                }
+                int cmp = Arrays.compareUnsigned(bytes(id), key);
+                if (cmp == 0) {
+                    // several symbols may share a name; take the lowest address that is an instruction
+                    while (mid > lo && data.getInt(symbols + (mid - 1) * 8) == id) {
+                        mid--;
+                    }
+                    for (; mid < symbolCount && data.getInt(symbols + mid * 8) == id; mid++) {
+                        int r = find(data.getInt(symbols + mid * 8 + 4));
+                        if (r >= 0) {
+                            return r;
+                        }
+                    }
+                    return -1;
+                }
+                if (cmp < 0) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid - 1;
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * Prints records {@code [from, to)} in the text listing format.
+         */
+        void render(ListingWriter out, int from, int to) throws IOException {
+            for (int r = from; r < to; r++) {
+                int addr = address(r);
+                byte format = format(r);
+                if (format < 0 || format >= DecodeTable.FORMAT_COUNT || (length(r) != 2 && length(r) != 4)) {
+                    throw corrupt("record " + r + " has format " + format + " and length " + length(r));
+                }
+                int rd = register(r, rd(r), DecodeTable.rdOf(format, 0) >= 0);
+                int rs1 = register(r, rs1(r), DecodeTable.rs1Of(format, 0) >= 0);
+                int rs2 = register(r, rs2(r), DecodeTable.rs2Of(format, 0) >= 0);
+                if (label(r) >= 0) {
+                    ElfParser.Disassembler.printLabel(out, addr, string(label(r)));
+                }
+                if (length(r) == 2) {
+                    out.instruction(addr, code(r), 2, mnemonic(r));
+                } else {
+                    out.instruction(addr, code(r), mnemonic(r));
+                }
+                ElfParser.Disassembler.printOperands(out, addr, format, rd, rs1, rs2, imm(r), string(target(r)));
+            }
+        }
+
+        /**
+         * {@code value} of a register field of record {@code r}, checked to be a register if the format has it.
+         */
+        private static int register(int r, int value, boolean used) throws IOException {
+            if (used && (value < 0 || value >= DecodeTable.REGISTERS.length)) {
+                throw corrupt("record " + r + " has register " + value);
+            }
+            return value;
+        }
+    }
+}
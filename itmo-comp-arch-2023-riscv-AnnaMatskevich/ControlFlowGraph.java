@@ -0,0 +1,445 @@
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Basic blocks of one executable section and the edges between them, kept in primitive arrays.
+ * Blocks are numbered in address order; the successors of block {@code b} are
+ * {@code succ[succStart[b]] .. succ[succStart[b + 1] - 1]}, and its predecessors are found the same way
+ * in {@code pred}. A block ends after a branch, jal x0 or jalr x0, and before a jump target or a FUNC symbol.
+ * Calls (jal and jalr with a link register) do not end blocks; they are counted per block.
+ * <p>
+ * Building takes one bit per instruction for the block leaders and a few ints per block,
+ * so millions of instructions fit in little memory; the graph is printed one function at a time.
+ */
+final class ControlFlowGraph {
+    // what the last instruction of a block does
+    static final byte PLAIN = 0;
+    static final byte BRANCH = 1;
+    static final byte JUMP = 2;    // jal x0
+    static final byte RETURN = 3;  // jalr x0: a return or an indirect jump
+    static final byte CALL = 4;    // jal or jalr with a link register
+
+    // edge kinds
+    static final byte FALL = 0;
+    static final byte TAKEN = 1;
+    static final byte GOTO = 2;
+    private static final String[] EDGE_NAMES = {"fall", "taken", "jump"};
+    private static final String[] SIZE_BUCKETS = {"1", "2-3", "4-7", "8-15", "16-31", "32-63", "64+"};
+
+    enum Format {
+        DOT, JSON
+    }
+
+    final String section;
+    final int address;
+    final int unit;
+    final int blocks;
+    final int[] start;
+    final int[] end;
+    final int[] instructions;
+    final int[] calls;
+    final byte[] last;
+    // a jump or branch whose target is not an instruction of the section
+    final boolean[] external;
+    final int[] succStart;
+    final int[] succ;
+    final byte[] succKind;
+    final int[] predStart;
+    final int[] pred;
+    // first block of every function, and its name
+    final int[] functionBlock;
+    final String[] functionName;
+
+    /**
+     * What an instruction does to the control flow, one of the block end kinds above.
+     */
+    static byte kind(int op, int code) {
+        if (DecodeTable.FORMAT[op] == DecodeTable.FMT_B) {
+            return BRANCH;
+        }
+        if (op == DecodeTable.JAL) {
+            return DecodeTable.rd(code) == 0 ? JUMP : CALL;
+        }
+        if (op == DecodeTable.JALR) {
+            return DecodeTable.rd(code) == 0 ? RETURN : CALL;
+        }
+        return PLAIN;
+    }
+
+    static boolean endsBlock(byte kind) {
+        return kind == BRANCH || kind == JUMP || kind == RETURN;
+    }
+
+    /**
+     * Collects the blocks of a section of {@code positions} instructions or halfwords, the first at {@code address}.
+     * All leaders and functions are added first, then every instruction in address order.
+     */
+    static final class Builder {
+        private final String section;
+        private final int address;
+        private final int unit;
+        private final int positions;
+        private final long[] leaders;
+        private long[] functions = new long[16];
+        private String[] names = new String[16];
+        private int functionCount;
+        private int count;
+        private int[] start = new int[64];
+        private int[] instructions = new int[64];
+        private int[] calls = new int[64];
+        private byte[] last = new byte[64];
+        private int[] target = new int[64];
+
+        Builder(String section, int address, int unit, int positions) {
+            this.section = section;
+            this.address = address;
+            this.unit = unit;
+            this.positions = positions;
+            this.leaders = new long[(positions + 63) >>> 6];
+        }
+
+        /**
+         * Starts a block at {@code position}; positions outside the section are ignored.
+         */
+        void leader(int position) {
+            if (position >= 0 && position < positions) {
+                leaders[position >>> 6] |= 1L << position;
+            }
+        }
+
+        /**
+         * Starts the function {@code name} at {@code position}, which is also made a leader.
+         */
+        void function(int position, String name) {
+            if (position < 0 || position >= positions) {
+                return;
+            }
+            leader(position);
+            if (functionCount == functions.length) {
+                functions = Arrays.copyOf(functions, functionCount * 2);
+                names = Arrays.copyOf(names, functionCount * 2);
+            }
+            // sorted by position, and by order of addition for the same position
+            functions[functionCount] = ((long) position << 32) | functionCount;
+            names[functionCount++] = name;
+        }
+
+        /**
+         * Adds the instruction at {@code position}; {@code targetPosition} is where its jump or branch goes,
+         * -1 when that is outside the section or there is no target.
+         */
+        void instruction(int position, byte kind, int targetPosition) {
+            if (count == 0 || (leaders[position >>> 6] & (1L << position)) != 0 || endsBlock(last[count - 1])) {
+                if (count == start.length) {
+                    int capacity = count * 2;
+                    start = Arrays.copyOf(start, capacity);
+                    instructions = Arrays.copyOf(instructions, capacity);
+                    calls = Arrays.copyOf(calls, capacity);
+                    last = Arrays.copyOf(last, capacity);
+                    target = Arrays.copyOf(target, capacity);
+                }
+                start[count++] = position;
+            }
+            int b = count - 1;
+            instructions[b]++;
+            last[b] = kind;
+            target[b] = targetPosition;
+            if (kind == CALL) {
+                calls[b]++;
+            }
+        }
+
+        ControlFlowGraph build() {
+            return new ControlFlowGraph(this);
+        }
+    }
+
+    private ControlFlowGraph(Builder builder) {
+        section = builder.section;
+        address = builder.address;
+        unit = builder.unit;
+        blocks = builder.count;
+        start = Arrays.copyOf(builder.start, blocks);
+        instructions = Arrays.copyOf(builder.instructions, blocks);
+        calls = Arrays.copyOf(builder.calls, blocks);
+        last = Arrays.copyOf(builder.last, blocks);
+        end = new int[blocks];
+        external = new boolean[blocks];
+        succStart = new int[blocks + 1];
+        int[] edges = new int[blocks * 2];
+        byte[] kinds = new byte[blocks * 2];
+        int e = 0;
+        for (int b = 0; b < blocks; b++) {
+            end[b] = b + 1 < blocks ? start[b + 1] : builder.positions;
+            succStart[b] = e;
+            byte kind = last[b];
+            if (kind == BRANCH || kind == JUMP) {
+                int target = builder.target[b] < 0 ? -1 : Arrays.binarySearch(start, builder.target[b]);
+                if (target >= 0) {
+                    edges[e] = target;
+                    kinds[e++] = kind == BRANCH ? TAKEN : GOTO;
+                } else {
+                    external[b] = true;
+                }
+            }
+            if (kind != JUMP && kind != RETURN && b + 1 < blocks) {
+                edges[e] = b + 1;
+                kinds[e++] = FALL;
+            }
+        }
+        succStart[blocks] = e;
+        succ = Arrays.copyOf(edges, e);
+        succKind = Arrays.copyOf(kinds, e);
+        predStart = new int[blocks + 1];
+        for (int to : succ) {
+            predStart[to + 1]++;
+        }
+        for (int b = 0; b < blocks; b++) {
+            predStart[b + 1] += predStart[b];
+        }
+        pred = new int[e];
+        int[] fill = Arrays.copyOf(predStart, blocks);
+        for (int b = 0; b < blocks; b++) {
+            for (int k = succStart[b]; k < succStart[b + 1]; k++) {
+                pred[fill[succ[k]]++] = b;
+            }
+        }
+
+        long[] functions = Arrays.copyOf(builder.functions, builder.functionCount);
+        Arrays.sort(functions);
+        int[] firstBlocks = new int[functions.length + 1];
+        String[] names = new String[functions.length + 1];
+        int n = 0;
+        for (long function : functions) {
+            int block = Arrays.binarySearch(start, (int) (function >>> 32));
+            // a symbol in the middle of an instruction starts no block
+            if (block >= 0 && (n == 0 || firstBlocks[n - 1] != block)) {
+                firstBlocks[n] = block;
+                names[n++] = builder.names[(int) function];
+            }
+        }
+        if (blocks > 0 && (n == 0 || firstBlocks[0] != 0)) {
+            // the blocks before the first function are listed under the section name
+            System.arraycopy(firstBlocks, 0, firstBlocks, 1, n);
+            System.arraycopy(names, 0, names, 1, n);
+            firstBlocks[0] = 0;
+            names[0] = section;
+            n++;
+        }
+        functionBlock = Arrays.copyOf(firstBlocks, n);
+        functionName = Arrays.copyOf(names, n);
+    }
+
+    int edges() {
+        return succ.length;
+    }
+
+    int blockAddress(int position) {
+        return address + position * unit;
+    }
+
+    private int functionEnd(int f) {
+        return f + 1 < functionBlock.length ? functionBlock[f + 1] : blocks;
+    }
+
+    /**
+     * Prints the graph as one DOT digraph with a cluster per function; edges between functions
+     * are drawn dashed outside the clusters, and the section statistics end it as comments.
+     */
+    void printDot(ListingWriter out) throws IOException {
+        out.append("digraph ");
+        appendString(out, section, false);
+        out.append(" {\n    node [shape=box, fontname=\"monospace\"];\n");
+        for (int f = 0; f < functionBlock.length; f++) {
+            int from = functionBlock[f];
+            int to = functionEnd(f);
+            out.append("    subgraph \"cluster_").appendDec(f).append("\" {\n        label=");
+            appendString(out, functionName[f] + "\\n" + functionStatistics(from, to), false);
+            out.append(";\n");
+            for (int b = from; b < to; b++) {
+                out.append("        b").appendDec(b).append(" [label=\"0x").appendHex(blockAddress(start[b]))
+                        .append("-0x").appendHex(blockAddress(end[b])).append("\\n").appendDec(instructions[b])
+                        .append(instructions[b] == 1 ? " instruction" : " instructions");
+                if (calls[b] > 0) {
+                    out.append(", ").appendDec(calls[b]).append(calls[b] == 1 ? " call" : " calls");
+                }
+                out.append(external[b] ? "\\nexternal target\"];\n" : "\"];\n");
+            }
+            for (int b = from; b < to; b++) {
+                for (int k = succStart[b]; k < succStart[b + 1]; k++) {
+                    if (succ[k] >= from && succ[k] < to) {
+                        printDotEdge(out, "        ", b, k);
+                    }
+                }
+            }
+            out.append("    }\n");
+        }
+        for (int f = 0; f < functionBlock.length; f++) {
+            for (int b = functionBlock[f]; b < functionEnd(f); b++) {
+                for (int k = succStart[b]; k < succStart[b + 1]; k++) {
+                    if (succ[k] < functionBlock[f] || succ[k] >= functionEnd(f)) {
+                        printDotEdge(out, "    ", b, k);
+                    }
+                }
+            }
+        }
+        int[] sizes = sizeHistogram(0, blocks);
+        out.append("    // blocks ").appendDec(blocks).append(", edges ").appendDec(edges()).append(", instructions ")
+                .appendDec(instructionCount(0, blocks)).append(", largest block ")
+                .appendDec(largestBlock(0, blocks)).append('\n');
+        out.append("    // block sizes:");
+        for (int i = 0; i < sizes.length; i++) {
+            out.append(' ').append(SIZE_BUCKETS[i]).append(": ").appendDec(sizes[i]);
+        }
+        out.append("\n}\n");
+    }
+
+    private void printDotEdge(ListingWriter out, String indent, int b, int k) throws IOException {
+        out.append(indent).append('b').appendDec(b).append(" -> b").appendDec(succ[k]);
+        if (succKind[k] != FALL) {
+            out.append(" [label=\"").append(EDGE_NAMES[succKind[k]]).append('"');
+            if (indent.length() == 4) {
+                out.append(", style=dashed");
+            }
+            out.append(']');
+        } else if (indent.length() == 4) {
+            out.append(" [style=dashed]");
+        }
+        out.append(";\n");
+    }
+
+    private String functionStatistics(int from, int to) {
+        int edges = internalEdges(from, to);
+        return "blocks " + (to - from) + ", edges " + edges + ", instructions " + instructionCount(from, to)
+                + ", cyclomatic " + cyclomatic(edges, to - from);
+    }
+
+    /**
+     * Prints the graph as one JSON object: the functions with their blocks and statistics,
+     * then the statistics of the section.
+     */
+    void printJson(ListingWriter out) throws IOException {
+        out.append("{\"section\": ");
+        appendString(out, section, true);
+        out.append(", \"functions\": [");
+        for (int f = 0; f < functionBlock.length; f++) {
+            int from = functionBlock[f];
+            int to = functionEnd(f);
+            out.append(f == 0 ? "\n  " : ",\n  ").append("{\"name\": ");
+            appendString(out, functionName[f], true);
+            out.append(", \"address\": \"0x").appendHex(blockAddress(start[from])).append("\", \"blocks\": [");
+            for (int b = from; b < to; b++) {
+                out.append(b == from ? "\n    " : ",\n    ").append("{\"id\": ").appendDec(b)
+                        .append(", \"start\": \"0x").appendHex(blockAddress(start[b]))
+                        .append("\", \"end\": \"0x").appendHex(blockAddress(end[b]))
+                        .append("\", \"instructions\": ").appendDec(instructions[b])
+                        .append(", \"calls\": ").appendDec(calls[b]);
+                if (external[b]) {
+                    out.append(", \"externalTarget\": true");
+                }
+                out.append(", \"successors\": [");
+                for (int k = succStart[b]; k < succStart[b + 1]; k++) {
+                    out.append(k == succStart[b] ? "" : ", ").append("{\"block\": ").appendDec(succ[k])
+                            .append(", \"kind\": \"").append(EDGE_NAMES[succKind[k]]).append("\"}");
+                }
+                out.append("], \"predecessors\": [");
+                for (int k = predStart[b]; k < predStart[b + 1]; k++) {
+                    out.append(k == predStart[b] ? "" : ", ").appendDec(pred[k]);
+                }
+                out.append("]}");
+            }
+            int edges = internalEdges(from, to);
+            int returns = 0;
+            int functionCalls = 0;
+            for (int b = from; b < to; b++) {
+                returns += last[b] == RETURN ? 1 : 0;
+                functionCalls += calls[b];
+            }
+            out.append("],\n   \"statistics\": {\"blocks\": ").appendDec(to - from)
+                    .append(", \"edges\": ").appendDec(edges)
+                    .append(", \"instructions\": ").appendDec(instructionCount(from, to))
+                    .append(", \"largestBlock\": ").appendDec(largestBlock(from, to))
+                    .append(", \"calls\": ").appendDec(functionCalls)
+                    .append(", \"returns\": ").appendDec(returns)
+                    .append(", \"cyclomatic\": ").appendDec(cyclomatic(edges, to - from)).append("}}");
+        }
+        out.append("],\n \"statistics\": {\"blocks\": ").appendDec(blocks)
+                .append(", \"edges\": ").appendDec(edges())
+                .append(", \"instructions\": ").appendDec(instructionCount(0, blocks))
+                .append(", \"largestBlock\": ").appendDec(largestBlock(0, blocks))
+                .append(", \"blockSizes\": {");
+        int[] sizes = sizeHistogram(0, blocks);
+        for (int i = 0; i < sizes.length; i++) {
+            out.append(i == 0 ? "\"" : ", \"").append(SIZE_BUCKETS[i]).append("\": ").appendDec(sizes[i]);
+        }
+        out.append("}}}");
+    }
+
+    /**
+     * E - N + 2, at least 1: code that no edge reaches, such as the startup code after main returns,
+     * would otherwise make it smaller.
+     */
+    private static int cyclomatic(int edges, int blocks) {
+        return Math.max(1, edges - blocks + 2);
+    }
+
+    private int internalEdges(int from, int to) {
+        int edges = 0;
+        for (int k = succStart[from]; k < succStart[to]; k++) {
+            if (succ[k] >= from && succ[k] < to) {
+                edges++;
+            }
+        }
+        return edges;
+    }
+
+    private int instructionCount(int from, int to) {
+        int total = 0;
+        for (int b = from; b < to; b++) {
+            total += instructions[b];
+        }
+        return total;
+    }
+
+    private int largestBlock(int from, int to) {
+        int max = 0;
+        for (int b = from; b < to; b++) {
+            max = Math.max(max, instructions[b]);
+        }
+        return max;
+    }
+
+    /**
+     * Number of blocks by instruction count, in the buckets 1, 2-3, 4-7, ..., 64 and more.
+     */
+    private int[] sizeHistogram(int from, int to) {
+        int[] sizes = new int[SIZE_BUCKETS.length];
+        for (int b = from; b < to; b++) {
+            sizes[Math.min(SIZE_BUCKETS.length - 1, 31 - Integer.numberOfLeadingZeros(instructions[b]))]++;
+        }
+        return sizes;
+    }
+
+    /**
+     * Appends {@code s} quoted; in JSON control characters are escaped, in DOT, where {@code \n}
+     * in {@code s} is kept as a line break, they are replaced by spaces.
+     */
+    private static void appendString(ListingWriter out, String s, boolean json) throws IOException {
+        out.append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '"' || (c == '\\' && (json || i + 1 >= s.length() || s.charAt(i + 1) != 'n'))) {
+                out.append('\\').append(c);
+            } else if (c < ' ') {
+                if (json) {
+                    out.append(String.format("\\u%04x", (int) c));
+                } else {
+                    out.append(' ');
+                }
+            } else {
+                out.append(c);
+            }
+        }
+        out.append('"');
+    }
+}
@@ -0,0 +1,364 @@
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Cross-reference index of the code: for every instruction that refers to an address, its site,
+ * target and kind. Calls and jumps come from jal and auipc+jalr, branches from the B-type instructions,
+ * reads, writes and address loads from lui/auipc followed by a load, a store or addi on the same register,
+ * kept only when the address is inside an OBJECT symbol.
+ * <p>
+ * References are stored twice as sorted {@code long} keys, once by site and once by target, so that
+ * "who refers to X" and "what does F refer to" are binary searches over primitive arrays.
+ */
+final class CrossReference {
+    static final byte CALL = 0;
+    static final byte JUMP = 1;
+    static final byte BRANCH = 2;
+    static final byte READ = 3;
+    static final byte WRITE = 4;
+    static final byte ADDRESS = 5;
+    private static final String[] KIND_NAMES = {"call", "jump", "branch", "read", "write", "address"};
+
+    static final byte FUNC = 0;
+    static final byte OBJECT = 1;
+    static final byte LABEL = 2;
+    private static final String[] TYPE_NAMES = {"FUNC", "OBJECT", "LABEL"};
+
+    // (site, target) of every reference and its kind, sorted by site; a site refers to one address at most
+    private final long[] bySite;
+    private final byte[] kinds;
+    // (target, site), sorted by target
+    private final long[] byTarget;
+    // symbols and labels sorted by address, symbols before labels at the same address
+    private final int[] address;
+    private final int[] size;
+    // the end of a function without a size is the next function; 0 is the end of memory
+    private final int[] end;
+    private final byte[] type;
+    private final String[] name;
+    // positions of the functions and of the objects among them
+    private final int[] functions;
+    private final int[] objects;
+
+    /**
+     * Collects the symbols, then the instructions of each section in address order.
+     * lui and auipc results, and gp, are followed per register until the register is written by something else,
+     * a call is made or {@link #boundary()} is reached.
+     */
+    static final class Builder {
+        private int count;
+        private int[] sites = new int[64];
+        private int[] targets = new int[64];
+        private byte[] kinds = new byte[64];
+        private int symbols;
+        private int[] address = new int[16];
+        private int[] size = new int[16];
+        private byte[] type = new byte[16];
+        private String[] name = new String[16];
+        private final int[] upper = new int[32];
+        private int known;
+        // gp is set once at startup and then holds everywhere, unless the code writes it
+        private int globalPointer;
+        private boolean hasGlobalPointer;
+
+        /**
+         * Adds a FUNC or OBJECT symbol of {@code size} bytes, or a label, whose size is 0.
+         */
+        void symbol(int address, int size, byte type, String name) {
+            if (symbols == this.address.length) {
+                this.address = Arrays.copyOf(this.address, symbols * 2);
+                this.size = Arrays.copyOf(this.size, symbols * 2);
+                this.type = Arrays.copyOf(this.type, symbols * 2);
+                this.name = Arrays.copyOf(this.name, symbols * 2);
+            }
+            this.address[symbols] = address;
+            this.size[symbols] = size;
+            this.type[symbols] = type;
+            this.name[symbols++] = name;
+        }
+
+        /**
+         * Makes gp hold {@code value}, the {@code __global_pointer$} symbol, so that gp-relative
+         * loads, stores and addi are resolved too.
+         */
+        void globalPointer(int value) {
+            globalPointer = value;
+            hasGlobalPointer = true;
+            boundary();
+        }
+
+        /**
+         * Forgets the register values, at a label or function start that other paths lead to.
+         */
+        void boundary() {
+            known = 0;
+            if (hasGlobalPointer) {
+                upper[3] = globalPointer;
+                known = 1 << 3;
+            }
+        }
+
+        /**
+         * Adds the references of the instruction {@code code}, decoded as {@code op}, at {@code addr}.
+         */
+        void instruction(int addr, int op, int code) {
+            byte format = DecodeTable.FORMAT[op];
+            int imm = DecodeTable.imm(format, code);
+            int rd = DecodeTable.rdOf(format, code);
+            int rs1 = DecodeTable.rs1Of(format, code);
+            boolean based = rs1 > 0 && (known & (1 << rs1)) != 0;
+            if (DecodeTable.isJump(format)) {
+                add(addr, addr + imm, format == DecodeTable.FMT_B ? BRANCH : rd == 0 ? JUMP : CALL);
+            } else if (op == DecodeTable.JALR) {
+                if (based) {
+                    add(addr, upper[rs1] + imm, rd == 0 ? JUMP : CALL);
+                }
+            } else if (format == DecodeTable.FMT_I_MEM && based) {
+                add(addr, upper[rs1] + imm, READ);
+            } else if (format == DecodeTable.FMT_S && based) {
+                add(addr, upper[rs1] + imm, WRITE);
+            } else if (op == DecodeTable.ADDI && based) {
+                add(addr, upper[rs1] + imm, ADDRESS);
+            }
+            if ((op == DecodeTable.JAL || op == DecodeTable.JALR) && rd != 0) {
+                // the callee may change any temporary
+                boundary();
+            } else if (rd > 0) {
+                if (op == DecodeTable.LUI || op == DecodeTable.AUIPC) {
+                    upper[rd] = (op == DecodeTable.AUIPC ? addr : 0) + (imm << 12);
+                    known |= 1 << rd;
+                } else {
+                    known &= ~(1 << rd);
+                }
+            }
+        }
+
+        private void add(int site, int target, byte kind) {
+            if (count == sites.length) {
+                sites = Arrays.copyOf(sites, count * 2);
+                targets = Arrays.copyOf(targets, count * 2);
+                kinds = Arrays.copyOf(kinds, count * 2);
+            }
+            sites[count] = site;
+            targets[count] = target;
+            kinds[count++] = kind;
+        }
+
+        CrossReference build() {
+            return new CrossReference(this);
+        }
+    }
+
+    private CrossReference(Builder builder) {
+        long[] order = new long[builder.symbols];
+        for (int i = 0; i < order.length; i++) {
+            // symbols were added before labels, so they come first at the same address
+            order[i] = key(builder.address[i], i);
+        }
+        Arrays.sort(order);
+        int n = order.length;
+        address = new int[n];
+        size = new int[n];
+        end = new int[n];
+        type = new byte[n];
+        name = new String[n];
+        int functionCount = 0;
+        int objectCount = 0;
+        for (int k = 0; k < n; k++) {
+            int i = (int) order[k];
+            address[k] = builder.address[i];
+            size[k] = builder.size[i];
+            end[k] = builder.address[i] + builder.size[i];
+            type[k] = builder.type[i];
+            name[k] = builder.name[i];
+            functionCount += type[k] == FUNC ? 1 : 0;
+            objectCount += type[k] == OBJECT ? 1 : 0;
+        }
+        functions = new int[functionCount];
+        objects = new int[objectCount];
+        for (int k = 0, f = 0, o = 0; k < n; k++) {
+            if (type[k] == FUNC) {
+                functions[f++] = k;
+            } else if (type[k] == OBJECT) {
+                objects[o++] = k;
+            }
+        }
+        for (int f = 0; f < functions.length; f++) {
+            int k = functions[f];
+            if (size[k] == 0) {
+                // a function without a size ends where the next one starts, the last one at the end of memory
+                int next = f + 1;
+                while (next < functions.length && address[functions[next]] == address[k]) {
+                    next++;
+                }
+                end[k] = next < functions.length ? address[functions[next]] : 0;
+            }
+        }
+
+        order = new long[builder.count];
+        int count = 0;
+        for (int i = 0; i < builder.count; i++) {
+            if (builder.kinds[i] < READ || object(builder.targets[i]) >= 0) {
+                order[count++] = key(builder.sites[i], i);
+            }
+        }
+        Arrays.sort(order, 0, count);
+        bySite = new long[count];
+        kinds = new byte[count];
+        byTarget = new long[count];
+        for (int k = 0; k < count; k++) {
+            int i = (int) order[k];
+            bySite[k] = key(builder.sites[i], builder.targets[i]);
+            kinds[k] = builder.kinds[i];
+            byTarget[k] = key(builder.targets[i], builder.sites[i]);
+        }
+        Arrays.sort(byTarget);
+    }
+
+    /**
+     * Packs two addresses so that signed order of the keys is unsigned order of the pairs.
+     */
+    private static long key(int high, int low) {
+        return ((long) (high ^ Integer.MIN_VALUE) << 32) | Integer.toUnsignedLong(low);
+    }
+
+    private static int high(long key) {
+        return (int) (key >>> 32) ^ Integer.MIN_VALUE;
+    }
+
+    private static int low(long key) {
+        return (int) key;
+    }
+
+    /**
+     * Position of the first key whose high address is {@code address} or more.
+     */
+    private static int lowerBound(long[] keys, int address) {
+        int i = Arrays.binarySearch(keys, key(address, 0));
+        return i >= 0 ? i : -i - 1;
+    }
+
+    /**
+     * Position of the last symbol, label or function at or before {@code addr}
+     * among the given positions of the symbol table, or -1.
+     */
+    private int floor(int[] positions, int from, int to, int addr) {
+        int lo = from;
+        int hi = to - 1;
+        int ans = -1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int k = positions == null ? mid : positions[mid];
+            if (Integer.compareUnsigned(address[k], addr) <= 0) {
+                ans = k;
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return ans;
+    }
+
+    /**
+     * Whether {@code addr} is inside symbol {@code k}; one of size 0 holds only its own address.
+     */
+    private boolean contains(int k, int addr) {
+        return addr == address[k] || Integer.compareUnsigned(addr - address[k], end[k] - address[k]) < 0;
+    }
+
+    /**
+     * The OBJECT symbol holding {@code addr}, or -1. Of overlapping objects only the last one that starts
+     * at or before {@code addr} is checked.
+     */
+    private int object(int addr) {
+        int k = floor(objects, 0, objects.length, addr);
+        return k >= 0 && contains(k, addr) ? k : -1;
+    }
+
+    private int function(int addr) {
+        int k = floor(functions, 0, functions.length, addr);
+        return k >= 0 && contains(k, addr) ? k : -1;
+    }
+
+    int references() {
+        return bySite.length;
+    }
+
+    private byte kind(int site) {
+        return kinds[lowerBound(bySite, site)];
+    }
+
+    /**
+     * Prints every symbol and label with the references to it and, for functions, the references
+     * from it to outside it; {@code query} limits that to the symbols and labels with that name.
+     * Returns whether any was printed.
+     */
+    boolean print(ListingWriter out, String query) throws IOException {
+        boolean found = false;
+        for (int k = 0; k < address.length; k++) {
+            if (query != null && !query.equals(name[k])) {
+                continue;
+            }
+            found = true;
+            out.appendHex(address[k], 8).append(" <").append(name[k]).append("> ").append(TYPE_NAMES[type[k]]);
+            if (type[k] != LABEL) {
+                out.append(' ').appendDec(size[k]);
+            }
+            out.append('\n');
+            int to = type[k] == OBJECT && size[k] > 0 ? end[k] : address[k] + 1;
+            int last = Integer.compareUnsigned(to, address[k]) > 0 ? lowerBound(byTarget, to) : byTarget.length;
+            for (int r = lowerBound(byTarget, address[k]); r < last; r++) {
+                int site = low(byTarget[r]);
+                out.append("    ").append(pad(KIND_NAMES[kind(site)])).append(" from ").appendHex(site, 8);
+                appendName(out, function(site), site);
+                if (type[k] == OBJECT && high(byTarget[r]) != address[k]) {
+                    out.append(" at +0x").appendHex(high(byTarget[r]) - address[k]);
+                }
+                out.append('\n');
+            }
+            if (type[k] == FUNC) {
+                int stop = end[k] != 0 ? lowerBound(bySite, end[k]) : bySite.length;
+                for (int r = lowerBound(bySite, address[k]); r < stop; r++) {
+                    int target = low(bySite[r]);
+                    if (contains(k, target)) {
+                        continue;
+                    }
+                    out.append("    ").append(pad(KIND_NAMES[kinds[r]])).append(" to   ").appendHex(target, 8);
+                    appendName(out, target(target), target);
+                    out.append(" at ").appendHex(high(bySite[r]), 8).append('\n');
+                }
+            }
+        }
+        return found;
+    }
+
+    /**
+     * The symbol or label at {@code addr}, else the object or function holding it, or -1.
+     */
+    private int target(int addr) {
+        int k = floor(null, 0, address.length, addr);
+        if (k >= 0 && address[k] == addr) {
+            while (k > 0 && address[k - 1] == addr) {
+                k--;
+            }
+            return k;
+        }
+        int object = object(addr);
+        return object >= 0 ? object : function(addr);
+    }
+
+    private void appendName(ListingWriter out, int k, int addr) throws IOException {
+        if (k < 0) {
+            return;
+        }
+        out.append(" <").append(name[k]);
+        if (addr != address[k]) {
+            out.append("+0x").appendHex(addr - address[k]);
+        }
+        out.append('>');
+    }
+
+    private static String pad(String kind) {
+        return kind + " ".repeat(7 - kind.length());
+    }
+}
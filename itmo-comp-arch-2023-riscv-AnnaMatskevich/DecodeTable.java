@@ -0,0 +1,513 @@
+/**
+ * Precomputed RV32I/RV32M and RV64I/RV64M decode tables.
+ * An instruction is decoded with one array load indexed by (opcode, funct3, funct7), which gives
+ * an instruction id; {@link #MNEMONIC} and {@link #FORMAT} are indexed by that id.
+ * New instructions are added with one {@code define} call in the static initializer;
+ * {@code define64} adds one to the RV64 table only.
+ * RV32C instructions are first rewritten by {@link #expand} into the 32-bit instruction they stand for,
+ * RV64C ones by {@link #expand64}.
+ */
+final class DecodeTable {
+    // operand formats
+    static final byte FMT_INVALID = 0;
+    static final byte FMT_U = 1;        // rd, 0x<imm>
+    static final byte FMT_J = 2;        // rd, 0x<target> <label>
+    static final byte FMT_I_MEM = 3;    // rd, imm(rs1)
+    static final byte FMT_S = 4;        // rs2, imm(rs1)
+    static final byte FMT_B = 5;        // rs1, rs2, 0x<target>, <label>
+    static final byte FMT_I = 6;        // rd, rs1, imm
+    static final byte FMT_I_SHAMT = 7;  // rd, rs1, shamt
+    static final byte FMT_R = 8;        // rd, rs1, rs2
+    static final byte FMT_FENCE = 9;    // succ, pred
+    static final byte FMT_NONE = 10;    // no operands
+    static final byte FMT_I_SHAMT6 = 11; // rd, rs1, 6-bit shamt of RV64
+    static final int FORMAT_COUNT = 12;
+
+    static final String[] REGISTERS = {
+            "zero", "ra", "sp", "gp", "tp", "t0", "t1", "t2",
+            "s0", "s1", "a0", "a1", "a2", "a3", "a4", "a5",
+            "a6", "a7", "s2", "s3", "s4", "s5", "s6", "s7",
+            "s8", "s9", "s10", "s11", "t3", "t4", "t5", "t6"
+    };
+
+    static final String[] FENCE_SETS = new String[16];
+
+    private static final int MAX_INSTRUCTIONS = 96;
+    private static final int ANY = -1;
+
+    static final String[] MNEMONIC = new String[MAX_INSTRUCTIONS];
+    static final byte[] FORMAT = new byte[MAX_INSTRUCTIONS];
+    private static int count = 0;
+
+    private static final short[] TABLE = new short[1 << 17];
+    private static final short[] TABLE64 = new short[1 << 17];
+
+    static final int INVALID = define("invalid_instruction", FMT_INVALID);
+    static final int LUI;
+    static final int AUIPC;
+    static final int JAL;
+    static final int JALR;
+    static final int ADDI;
+    static final int FENCE;
+    static final int FENCE_TSO;
+    static final int PAUSE;
+    static final int ECALL;
+    static final int EBREAK;
+
+    static {
+        LUI = define("lui", FMT_U, 0b0110111, ANY, ANY);
+        AUIPC = define("auipc", FMT_U, 0b0010111, ANY, ANY);
+        JAL = define("jal", FMT_J, 0b1101111, ANY, ANY);
+        JALR = define("jalr", FMT_I_MEM, 0b1100111, ANY, ANY);
+
+        define("beq", FMT_B, 0b1100011, 0b000, ANY);
+        define("bne", FMT_B, 0b1100011, 0b001, ANY);
+        define("blt", FMT_B, 0b1100011, 0b100, ANY);
+        define("bge", FMT_B, 0b1100011, 0b101, ANY);
+        define("bltu", FMT_B, 0b1100011, 0b110, ANY);
+        define("bgeu", FMT_B, 0b1100011, 0b111, ANY);
+
+        define("lb", FMT_I_MEM, 0b0000011, 0b000, ANY);
+        define("lh", FMT_I_MEM, 0b0000011, 0b001, ANY);
+        define("lw", FMT_I_MEM, 0b0000011, 0b010, ANY);
+        define("lbu", FMT_I_MEM, 0b0000011, 0b100, ANY);
+        define("lhu", FMT_I_MEM, 0b0000011, 0b101, ANY);
+
+        define("sb", FMT_S, 0b0100011, 0b000, ANY);
+        define("sh", FMT_S, 0b0100011, 0b001, ANY);
+        define("sw", FMT_S, 0b0100011, 0b010, ANY);
+
+        ADDI = define("addi", FMT_I, 0b0010011, 0b000, ANY);
+        // slti and sltiu have always been listed with the shamt field, keep the output unchanged
+        define("slti", FMT_I_SHAMT, 0b0010011, 0b010, ANY);
+        define("sltiu", FMT_I_SHAMT, 0b0010011, 0b011, ANY);
+        define("xori", FMT_I, 0b0010011, 0b100, ANY);
+        define("ori", FMT_I, 0b0010011, 0b110, ANY);
+        define("andi", FMT_I, 0b0010011, 0b111, ANY);
+        define("slli", FMT_I_SHAMT, 0b0010011, 0b001, 0b0000000);
+        define("srli", FMT_I_SHAMT, 0b0010011, 0b101, 0b0000000);
+        define("srai", FMT_I_SHAMT, 0b0010011, 0b101, 0b0100000);
+
+        define("add", FMT_R, 0b0110011, 0b000, 0b0000000);
+        define("sub", FMT_R, 0b0110011, 0b000, 0b0100000);
+        define("sll", FMT_R, 0b0110011, 0b001, 0b0000000);
+        define("slt", FMT_R, 0b0110011, 0b010, 0b0000000);
+        define("sltu", FMT_R, 0b0110011, 0b011, 0b0000000);
+        define("xor", FMT_R, 0b0110011, 0b100, 0b0000000);
+        define("srl", FMT_R, 0b0110011, 0b101, 0b0000000);
+        define("sra", FMT_R, 0b0110011, 0b101, 0b0100000);
+        define("or", FMT_R, 0b0110011, 0b110, 0b0000000);
+        define("and", FMT_R, 0b0110011, 0b111, 0b0000000);
+
+        define("mul", FMT_R, 0b0110011, 0b000, 0b0000001);
+        define("mulh", FMT_R, 0b0110011, 0b001, 0b0000001);
+        define("mulhsu", FMT_R, 0b0110011, 0b010, 0b0000001);
+        define("mulhu", FMT_R, 0b0110011, 0b011, 0b0000001);
+        define("div", FMT_R, 0b0110011, 0b100, 0b0000001);
+        define("divu", FMT_R, 0b0110011, 0b101, 0b0000001);
+        define("rem", FMT_R, 0b0110011, 0b110, 0b0000001);
+        define("remu", FMT_R, 0b0110011, 0b111, 0b0000001);
+
+        // the table only selects fence and ecall, decode() refines them by the whole word
+        FENCE = define("fence", FMT_FENCE, 0b0001111, ANY, ANY);
+        FENCE_TSO = define("fence.tso", FMT_FENCE);
+        PAUSE = define("pause", FMT_FENCE);
+        ECALL = define("ecall", FMT_NONE, 0b1110011, ANY, ANY);
+        EBREAK = define("ebreak", FMT_NONE);
+
+        define64("lwu", FMT_I_MEM, 0b0000011, 0b110, ANY);
+        define64("ld", FMT_I_MEM, 0b0000011, 0b011, ANY);
+        define64("sd", FMT_S, 0b0100011, 0b011, ANY);
+        // shifts with shamt[5] set; the funct7 the RV32 forms are defined with leave it 0
+        define64("slli", FMT_I_SHAMT6, 0b0010011, 0b001, 0b0000001);
+        define64("srli", FMT_I_SHAMT6, 0b0010011, 0b101, 0b0000001);
+        define64("srai", FMT_I_SHAMT6, 0b0010011, 0b101, 0b0100001);
+
+        define64("addiw", FMT_I, 0b0011011, 0b000, ANY);
+        define64("slliw", FMT_I_SHAMT, 0b0011011, 0b001, 0b0000000);
+        define64("srliw", FMT_I_SHAMT, 0b0011011, 0b101, 0b0000000);
+        define64("sraiw", FMT_I_SHAMT, 0b0011011, 0b101, 0b0100000);
+
+        define64("addw", FMT_R, 0b0111011, 0b000, 0b0000000);
+        define64("subw", FMT_R, 0b0111011, 0b000, 0b0100000);
+        define64("sllw", FMT_R, 0b0111011, 0b001, 0b0000000);
+        define64("srlw", FMT_R, 0b0111011, 0b101, 0b0000000);
+        define64("sraw", FMT_R, 0b0111011, 0b101, 0b0100000);
+
+        define64("mulw", FMT_R, 0b0111011, 0b000, 0b0000001);
+        define64("divw", FMT_R, 0b0111011, 0b100, 0b0000001);
+        define64("divuw", FMT_R, 0b0111011, 0b101, 0b0000001);
+        define64("remw", FMT_R, 0b0111011, 0b110, 0b0000001);
+        define64("remuw", FMT_R, 0b0111011, 0b111, 0b0000001);
+
+        for (int i = 0; i < FENCE_SETS.length; i++) {
+            FENCE_SETS[i] = ((i & 0b1000) != 0 ? "i" : "") + ((i & 0b100) != 0 ? "o" : "")
+                    + ((i & 0b10) != 0 ? "r" : "") + ((i & 0b1) != 0 ? "w" : "");
+        }
+    }
+
+    private DecodeTable() {
+
+    }
+
+    private static int define(String mnemonic, byte format) {
+        MNEMONIC[count] = mnemonic;
+        FORMAT[count] = format;
+        return count++;
+    }
+
+    private static int define(String mnemonic, byte format, int opcode, int funct3, int funct7) {
+        int id = define(mnemonic, format);
+        fill(TABLE, id, opcode, funct3, funct7);
+        fill(TABLE64, id, opcode, funct3, funct7);
+        return id;
+    }
+
+    private static void define64(String mnemonic, byte format, int opcode, int funct3, int funct7) {
+        fill(TABLE64, define(mnemonic, format), opcode, funct3, funct7);
+    }
+
+    private static void fill(short[] table, int id, int opcode, int funct3, int funct7) {
+        for (int f3 = 0; f3 < 8; f3++) {
+            if (funct3 != ANY && f3 != funct3) {
+                continue;
+            }
+            for (int f7 = 0; f7 < 128; f7++) {
+                if (funct7 == ANY || f7 == funct7) {
+                    table[(opcode << 10) | (f3 << 7) | f7] = (short) id;
+                }
+            }
+        }
+    }
+
+    /**
+     * Number of defined instruction ids.
+     */
+    static int count() {
+        return count;
+    }
+
+    /**
+     * The table {@link #decode(short[], int)} reads for RV64 or RV32 code.
+     */
+    static short[] table(boolean rv64) {
+        return rv64 ? TABLE64 : TABLE;
+    }
+
+    static int decode(int code) {
+        return decode(TABLE, code);
+    }
+
+    static int decode64(int code) {
+        return decode(TABLE64, code);
+    }
+
+    static int decode(short[] table, int code) {
+        int id = table[((code & 0x7f) << 10) | ((code >>> 5) & 0x380) | (code >>> 25)];
+        if (id == FENCE) {
+            if (code == 0b10000011001100000000000000001111) {
+                return FENCE_TSO;
+            }
+            if (code == 0b00000001000000000000000000001111) {
+                return PAUSE;
+            }
+        } else if (id == ECALL && code != 0b00000000000000000000000001110011) {
+            return EBREAK;
+        }
+        return id;
+    }
+
+    static int rd(int code) {
+        return (code >> 7) & 0x1f;
+    }
+
+    static int rs1(int code) {
+        return (code >> 15) & 0x1f;
+    }
+
+    static int rs2(int code) {
+        return (code >> 20) & 0x1f;
+    }
+
+    /**
+     * Whether the parcel starting with {@code half} is a 16-bit compressed instruction.
+     */
+    static boolean isCompressed(int half) {
+        return (half & 0b11) != 0b11;
+    }
+
+    /**
+     * The 32-bit instruction equivalent to the RV32C instruction {@code half}, or 0, which decodes
+     * as {@link #INVALID}, for reserved encodings and the floating-point loads and stores.
+     */
+    static int expand(int half) {
+        int funct3 = (half >> 13) & 0b111;
+        int rd = (half >> 7) & 0x1f;
+        int rs2 = (half >> 2) & 0x1f;
+        int rdc = 8 + ((half >> 2) & 0b111);   // rd' and rs2' of the 3-bit register fields
+        int rs1c = 8 + ((half >> 7) & 0b111);  // rs1' and rd'
+        switch (half & 0b11) {
+            case 0b00 -> {
+                switch (funct3) {
+                    case 0b000 -> {  // c.addi4spn
+                        int imm = ((half >> 7) & 0b1111) << 6 | ((half >> 11) & 0b11) << 4
+                                | ((half >> 5) & 1) << 3 | ((half >> 6) & 1) << 2;
+                        return imm == 0 ? 0 : iType(0b0010011, 0b000, rdc, 2, imm);
+                    }
+                    case 0b010 -> {  // c.lw
+                        return iType(0b0000011, 0b010, rdc, rs1c, lwOffset(half));
+                    }
+                    case 0b110 -> {  // c.sw
+                        return sType(0b010, rs1c, rdc, lwOffset(half));
+                    }
+                }
+            }
+            case 0b01 -> {
+                int imm6 = ((half << 19) >> 26 & ~0x1f) | ((half >> 2) & 0x1f);
+                switch (funct3) {
+                    case 0b000 -> {  // c.addi, c.nop
+                        return iType(0b0010011, 0b000, rd, rd, imm6);
+                    }
+                    case 0b001 -> {  // c.jal
+                        return jType(1, jOffset(half));
+                    }
+                    case 0b010 -> {  // c.li
+                        return iType(0b0010011, 0b000, rd, 0, imm6);
+                    }
+                    case 0b011 -> {
+                        if (rd == 2) {  // c.addi16sp
+                            int imm = ((half << 19) >> 31) << 9 | ((half >> 3) & 0b11) << 7 | ((half >> 5) & 1) << 6
+                                    | ((half >> 2) & 1) << 5 | ((half >> 6) & 1) << 4;
+                            return imm == 0 ? 0 : iType(0b0010011, 0b000, 2, 2, imm);
+                        }
+                        // c.lui
+                        return imm6 == 0 ? 0 : (imm6 << 12) | (rd << 7) | 0b0110111;
+                    }
+                    case 0b100 -> {
+                        switch ((half >> 10) & 0b11) {
+                            case 0b00 -> {  // c.srli, shamt[5] must be 0 on RV32
+                                return imm6 < 0 ? 0 : iType(0b0010011, 0b101, rs1c, rs1c, imm6);
+                            }
+                            case 0b01 -> {  // c.srai
+                                return imm6 < 0 ? 0 : iType(0b0010011, 0b101, rs1c, rs1c, imm6 | 0b0100000_00000);
+                            }
+                            case 0b10 -> {  // c.andi
+                                return iType(0b0010011, 0b111, rs1c, rs1c, imm6);
+                            }
+                            default -> {
+                                if ((half & (1 << 12)) != 0) {
+                                    return 0;  // c.subw and c.addw are RV64 only
+                                }
+                                return switch ((half >> 5) & 0b11) {
+                                    case 0b00 -> rType(0b0100000, 0b000, rs1c, rs1c, rdc);  // c.sub
+                                    case 0b01 -> rType(0, 0b100, rs1c, rs1c, rdc);          // c.xor
+                                    case 0b10 -> rType(0, 0b110, rs1c, rs1c, rdc);          // c.or
+                                    default -> rType(0, 0b111, rs1c, rs1c, rdc);            // c.and
+                                };
+                            }
+                        }
+                    }
+                    case 0b101 -> {  // c.j
+                        return jType(0, jOffset(half));
+                    }
+                    case 0b110, 0b111 -> {  // c.beqz, c.bnez
+                        int imm = ((half << 19) >> 31) << 8 | ((half >> 5) & 0b11) << 6 | ((half >> 2) & 1) << 5
+                                | ((half >> 10) & 0b11) << 3 | ((half >> 3) & 0b11) << 1;
+                        return bType(funct3 == 0b110 ? 0b000 : 0b001, rs1c, 0, imm);
+                    }
+                }
+            }
+            case 0b10 -> {
+                switch (funct3) {
+                    case 0b000 -> {  // c.slli
+                        return (half & (1 << 12)) != 0 ? 0 : iType(0b0010011, 0b001, rd, rd, rs2);
+                    }
+                    case 0b010 -> {  // c.lwsp
+                        int imm = ((half >> 2) & 0b11) << 6 | ((half >> 12) & 1) << 5 | ((half >> 4) & 0b111) << 2;
+                        return rd == 0 ? 0 : iType(0b0000011, 0b010, rd, 2, imm);
+                    }
+                    case 0b100 -> {
+                        if ((half & (1 << 12)) == 0) {
+                            if (rs2 == 0) {  // c.jr
+                                return rd == 0 ? 0 : iType(0b1100111, 0b000, 0, rd, 0);
+                            }
+                            return rType(0, 0b000, rd, 0, rs2);  // c.mv
+                        }
+                        if (rs2 == 0) {  // c.ebreak, c.jalr
+                            return rd == 0 ? 0x00100073 : iType(0b1100111, 0b000, 1, rd, 0);
+                        }
+                        return rType(0, 0b000, rd, rd, rs2);  // c.add
+                    }
+                    case 0b110 -> {  // c.swsp
+                        int imm = ((half >> 7) & 0b11) << 6 | ((half >> 9) & 0b1111) << 2;
+                        return sType(0b010, 2, rs2, imm);
+                    }
+                }
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * {@link #expand} for RV64C: c.ld, c.sd, c.ldsp, c.sdsp and c.addiw take the places of the
+     * floating-point forms and c.jal, c.subw and c.addw are defined, and shifts have a 6-bit shamt.
+     */
+    static int expand64(int half) {
+        int rd = (half >> 7) & 0x1f;
+        int rdc = 8 + ((half >> 2) & 0b111);
+        int rs1c = 8 + ((half >> 7) & 0b111);
+        int shamt = ((half >> 7) & 0b100000) | ((half >> 2) & 0x1f);
+        switch (half & 0xe003) {
+            case 0x6000 -> {  // c.ld
+                return iType(0b0000011, 0b011, rdc, rs1c, ldOffset(half));
+            }
+            case 0xe000 -> {  // c.sd
+                return sType(0b011, rs1c, rdc, ldOffset(half));
+            }
+            case 0x2001 -> {  // c.addiw
+                int imm6 = ((half << 19) >> 26 & ~0x1f) | ((half >> 2) & 0x1f);
+                return rd == 0 ? 0 : iType(0b0011011, 0b000, rd, rd, imm6);
+            }
+            case 0x8001 -> {
+                switch ((half >> 10) & 0b11) {
+                    case 0b00 -> {  // c.srli
+                        return iType(0b0010011, 0b101, rs1c, rs1c, shamt);
+                    }
+                    case 0b01 -> {  // c.srai
+                        return iType(0b0010011, 0b101, rs1c, rs1c, shamt | 0b0100000_00000);
+                    }
+                    case 0b11 -> {
+                        if ((half & (1 << 12)) != 0) {
+                            // OP-32 differs from OP in bit 3 of the opcode
+                            return switch ((half >> 5) & 0b11) {
+                                case 0b00 -> rType(0b0100000, 0b000, rs1c, rs1c, rdc) | 0b1000;  // c.subw
+                                case 0b01 -> rType(0, 0b000, rs1c, rs1c, rdc) | 0b1000;          // c.addw
+                                default -> 0;
+                            };
+                        }
+                    }
+                }
+            }
+            case 0x0002 -> {  // c.slli
+                return iType(0b0010011, 0b001, rd, rd, shamt);
+            }
+            case 0x6002 -> {  // c.ldsp
+                int imm = ((half >> 2) & 0b111) << 6 | ((half >> 12) & 1) << 5 | ((half >> 5) & 0b11) << 3;
+                return rd == 0 ? 0 : iType(0b0000011, 0b011, rd, 2, imm);
+            }
+            case 0xe002 -> {  // c.sdsp
+                int imm = ((half >> 7) & 0b111) << 6 | ((half >> 10) & 0b111) << 3;
+                return sType(0b011, 2, (half >> 2) & 0x1f, imm);
+            }
+        }
+        return expand(half);
+    }
+
+    private static int ldOffset(int half) {
+        return ((half >> 5) & 0b11) << 6 | ((half >> 10) & 0b111) << 3;
+    }
+
+    private static int lwOffset(int half) {
+        return ((half >> 5) & 1) << 6 | ((half >> 10) & 0b111) << 3 | ((half >> 6) & 1) << 2;
+    }
+
+    private static int jOffset(int half) {
+        return ((half << 19) >> 31) << 11 | ((half >> 8) & 1) << 10 | ((half >> 9) & 0b11) << 8
+                | ((half >> 6) & 1) << 7 | ((half >> 7) & 1) << 6 | ((half >> 2) & 1) << 5
+                | ((half >> 11) & 1) << 4 | ((half >> 3) & 0b111) << 1;
+    }
+
+    private static int iType(int opcode, int funct3, int rd, int rs1, int imm) {
+        return (imm << 20) | (rs1 << 15) | (funct3 << 12) | (rd << 7) | opcode;
+    }
+
+    private static int sType(int funct3, int rs1, int rs2, int imm) {
+        return ((imm >> 5) << 25) | (rs2 << 20) | (rs1 << 15) | (funct3 << 12) | ((imm & 0x1f) << 7) | 0b0100011;
+    }
+
+    private static int bType(int funct3, int rs1, int rs2, int imm) {
+        return ((imm >> 12) & 1) << 31 | ((imm >> 5) & 0x3f) << 25 | (rs2 << 20) | (rs1 << 15) | (funct3 << 12)
+                | ((imm >> 1) & 0xf) << 8 | ((imm >> 11) & 1) << 7 | 0b1100011;
+    }
+
+    private static int jType(int rd, int imm) {
+        return ((imm >> 20) & 1) << 31 | ((imm >> 1) & 0x3ff) << 21 | ((imm >> 11) & 1) << 20
+                | ((imm >> 12) & 0xff) << 12 | (rd << 7) | 0b1101111;
+    }
+
+    private static int rType(int funct7, int funct3, int rd, int rs1, int rs2) {
+        return (funct7 << 25) | (rs2 << 20) | (rs1 << 15) | (funct3 << 12) | (rd << 7) | 0b0110011;
+    }
+
+    /**
+     * Whether the format is a jal or a branch, whose target is the instruction address plus {@link #imm}.
+     */
+    static boolean isJump(byte format) {
+        return format == FMT_J || format == FMT_B;
+    }
+
+    /**
+     * rd of the instruction, or -1 if its format has none; {@link #rs1Of} and {@link #rs2Of} work the same way.
+     */
+    static int rdOf(byte format, int code) {
+        return switch (format) {
+            case FMT_U, FMT_J, FMT_I_MEM, FMT_I, FMT_I_SHAMT, FMT_I_SHAMT6, FMT_R -> rd(code);
+            default -> -1;
+        };
+    }
+
+    static int rs1Of(byte format, int code) {
+        return switch (format) {
+            case FMT_I_MEM, FMT_S, FMT_B, FMT_I, FMT_I_SHAMT, FMT_I_SHAMT6, FMT_R -> rs1(code);
+            default -> -1;
+        };
+    }
+
+    static int rs2Of(byte format, int code) {
+        return switch (format) {
+            case FMT_S, FMT_B, FMT_R -> rs2(code);
+            default -> -1;
+        };
+    }
+
+    /**
+     * Immediate of {@code code} as the listing prints it for the given format:
+     * branch and jump offsets, sign-extended I/S immediates, the upper 20 bits for U-type,
+     * the shamt field, or the fence predecessor/successor bits.
+     */
+    static int imm(byte format, int code) {
+        switch (format) {
+            case FMT_U -> {
+                return code >> 12;
+            }
+            case FMT_J -> {
+                int imm = ((code >> 21) & 0x3ff) +
+                        (((code >> 20) & 1) << 10) +
+                        (((code >> 12) & 0xff) << 11);
+                return (((code >> 31) & 1) == 1 ? 0xfff00000 : 0) | (imm << 1);
+            }
+            case FMT_B -> {
+                int imm = (((((code >> 25) & 0b111111) << 4) & 0x3ff) +
+                        (((code >> 7) & 1) << 10) +
+                        ((code >> 8) & 0b1111)) << 1;
+                return (((code >> 31) & 1) == 1 ? 0xfffff000 : 0) | imm;
+            }
+            case FMT_I, FMT_I_MEM -> {
+                return code >> 20;
+            }
+            case FMT_S -> {
+                return ((code >> 25) << 5) + ((code >> 7) & 0x1f);
+            }
+            case FMT_I_SHAMT -> {
+                return (code >> 20) & 0x1f;
+            }
+            case FMT_I_SHAMT6 -> {
+                return (code >> 20) & 0x3f;
+            }
+            case FMT_FENCE -> {
+                return (code >> 20) & 0xff;
+            }
+        }
+        return 0;
+    }
+}
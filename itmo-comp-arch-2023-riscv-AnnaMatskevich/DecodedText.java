@@ -0,0 +1,92 @@
+import java.nio.ByteBuffer;
+
+/**
+ * Instructions of a text section decoded once, kept as parallel primitive arrays:
+ * address, raw word, instruction id from {@link DecodeTable} and the decoded immediate.
+ * After {@link #decodeCompressed} {@code length} holds the size of every instruction in bytes,
+ * and the code of a 2-byte one is its 16 bits as they are in the file.
+ */
+final class DecodedText {
+    final int[] addr;
+    final int[] code;
+    final short[] op;
+    final int[] imm;
+    final byte[] length;
+    int size;
+    boolean compressed;
+    private final Isa isa;
+
+    DecodedText(int capacity) {
+        this(capacity, Isa.RV32);
+    }
+
+    DecodedText(int capacity, Isa isa) {
+        this.isa = isa;
+        addr = new int[capacity];
+        code = new int[capacity];
+        op = new short[capacity];
+        imm = new int[capacity];
+        length = new byte[capacity];
+    }
+
+    /**
+     * Replaces the contents with {@code count} words read from {@code bytes} at {@code offset},
+     * the first of which is at {@code address}.
+     */
+    void decode(ByteBuffer bytes, int offset, int address, int count) {
+        for (int i = 0; i < count; ++i) {
+            set(i, address + i * 4, bytes.getInt(offset + i * 4));
+        }
+        size = count;
+        compressed = false;
+    }
+
+    /**
+     * Replaces the contents with the 2- and 4-byte instructions that start in the first {@code units}
+     * halfwords at {@code offset}, which must be an instruction boundary. {@code available} halfwords
+     * can be read, so the last instruction may end one halfword after {@code units}; one whose
+     * second half is not available is invalid. Returns the number of halfwords decoded.
+     */
+    int decodeCompressed(ByteBuffer bytes, int offset, int address, int units, int available) {
+        int n = 0;
+        int i = 0;
+        while (i < units) {
+            int half = bytes.getShort(offset + i * 2) & 0xffff;
+            if (DecodeTable.isCompressed(half) || i + 1 >= available) {
+                setCompressed(n, address + i * 2, half);
+                length[n++] = 2;
+                i++;
+            } else {
+                set(n, address + i * 2, bytes.getInt(offset + i * 2));
+                length[n++] = 4;
+                i += 2;
+            }
+        }
+        size = n;
+        compressed = true;
+        return i;
+    }
+
+    /**
+     * Decodes {@code word} into slot {@code i}; distinct slots may be filled from different threads.
+     */
+    void set(int i, int address, int word) {
+        int id = isa.decode(word);
+        addr[i] = address;
+        code[i] = word;
+        op[i] = (short) id;
+        imm[i] = DecodeTable.imm(DecodeTable.FORMAT[id], word);
+    }
+
+    /**
+     * Decodes the compressed instruction {@code half} into slot {@code i} through its 32-bit form.
+     */
+    void setCompressed(int i, int address, int half) {
+        int word = DecodeTable.isCompressed(half) ? isa.expand(half) : 0;
+        int id = isa.decode(word);
+        addr[i] = address;
+        code[i] = half;
+        op[i] = (short) id;
+        imm[i] = DecodeTable.imm(DecodeTable.FORMAT[id], word);
+    }
+}
@@ -0,0 +1,215 @@
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HexFormat;
+import java.util.List;
+
+/**
+ * On-disk cache of rendered listing parts, keyed by a SHA-256 of everything the part depends on.
+ * Every entry ends with the SHA-256 of its contents, which is checked before the entry is used;
+ * a damaged entry is deleted and treated as a miss. When the directory grows over the size limit
+ * the least recently used entries are removed; an entry removed this way by another run sharing
+ * the directory is a miss too.
+ */
+final class DisassemblyCache {
+    // bump when the listing format changes, so old entries are never used
+    private static final String VERSION = "listing-2";
+    private static final byte[] MAGIC = {'R', 'V', 'D', 'C', 'A', 'C', 'H', 'E'};
+    private static final int TRAILER = 32 + MAGIC.length;
+    private static final String SUFFIX = ".part";
+
+    interface Part {
+        void print(ListingWriter out) throws IOException;
+    }
+
+    /**
+     * Collects the inputs of a cache key.
+     */
+    static final class Key {
+        private final MessageDigest digest = sha256();
+
+        Key(String kind) {
+            add(VERSION).add(kind);
+        }
+
+        Key add(String s) {
+            digest.update(s.getBytes(StandardCharsets.UTF_8));
+            digest.update((byte) 0);
+            return this;
+        }
+
+        Key add(int value) {
+            digest.update(new byte[]{(byte) (value >> 24), (byte) (value >> 16), (byte) (value >> 8), (byte) value});
+            return this;
+        }
+
+        /**
+         * Adds {@code size} bytes of the file at {@code offset}; ranges outside the file add only their bounds.
+         */
+        Key add(ByteBuffer bytes, int offset, int size) {
+            add(offset).add(size);
+            if (offset >= 0 && size >= 0 && offset <= bytes.limit() - size) {
+                digest.update(bytes.slice(offset, size));
+            }
+            return this;
+        }
+
+        String build() {
+            return HexFormat.of().formatHex(digest.digest());
+        }
+    }
+
+    private final Path dir;
+    private final long maxBytes;
+
+    DisassemblyCache(Path dir, long maxBytes) throws IOException {
+        this.dir = Files.createDirectories(dir);
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * Writes the part stored under {@code key} to {@code out}; on a miss prints it with {@code part},
+     * stores it and then writes it, or prints it again when another run has already evicted it.
+     */
+    void write(String key, ListingWriter out, Part part) throws IOException {
+        Path entry = dir.resolve(key + SUFFIX);
+        if (copyTo(entry, out)) {
+            return;
+        }
+        Path tmp;
+        try {
+            tmp = Files.createTempFile(dir, key, ".tmp");
+        } catch (IOException e) {
+            part.print(out);
+            return;
+        }
+        try {
+            DigestOutputStream stream = new DigestOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)), sha256());
+            ListingWriter writer = new ListingWriter(stream);
+            try {
+                part.print(writer);
+                writer.flush();
+                stream.on(false);
+                stream.write(stream.getMessageDigest().digest());
+                stream.write(MAGIC);
+            } finally {
+                writer.close();
+            }
+            Files.move(tmp, entry, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+        if (!copyTo(entry, out)) {
+            part.print(out);
+        }
+        evict();
+    }
+
+    /**
+     * Checks the entry and copies its contents to {@code out}; false when it is missing or damaged.
+     */
+    private boolean copyTo(Path entry, ListingWriter out) throws IOException {
+        long size;
+        InputStream in;
+        try {
+            size = Files.size(entry);
+            if (size < TRAILER || !verify(entry, size - TRAILER)) {
+                Files.deleteIfExists(entry);
+                return false;
+            }
+            in = Files.newInputStream(entry);
+        } catch (NoSuchFileException e) {
+            return false;
+        }
+        byte[] buffer = new byte[ListingWriter.BLOCK_SIZE];
+        try (in) {
+            long left = size - TRAILER;
+            while (left > 0) {
+                int n = in.read(buffer, 0, (int) Math.min(buffer.length, left));
+                if (n < 0) {
+                    throw new IOException("cache entry " + entry + " is truncated");
+                }
+                out.write(buffer, 0, n);
+                left -= n;
+            }
+        }
+        try {
+            Files.setLastModifiedTime(entry, FileTime.fromMillis(System.currentTimeMillis()));
+        } catch (NoSuchFileException e) {
+            // evicted after it was opened; the copy is still whole
+        }
+        return true;
+    }
+
+    private static boolean verify(Path entry, long payload) throws IOException {
+        MessageDigest digest = sha256();
+        byte[] buffer = new byte[ListingWriter.BLOCK_SIZE];
+        byte[] trailer = new byte[TRAILER];
+        try (InputStream in = Files.newInputStream(entry)) {
+            long left = payload;
+            while (left > 0) {
+                int n = in.read(buffer, 0, (int) Math.min(buffer.length, left));
+                if (n < 0) {
+                    return false;
+                }
+                digest.update(buffer, 0, n);
+                left -= n;
+            }
+            if (in.readNBytes(trailer, 0, TRAILER) != TRAILER) {
+                return false;
+            }
+        }
+        return Arrays.equals(digest.digest(), Arrays.copyOf(trailer, 32))
+                && Arrays.equals(MAGIC, Arrays.copyOfRange(trailer, 32, TRAILER));
+    }
+
+    private void evict() throws IOException {
+        List<Path> entries = new ArrayList<>();
+        long total = 0;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "*" + SUFFIX)) {
+            for (Path file : files) {
+                entries.add(file);
+            }
+        }
+        long[] sizes = new long[entries.size()];
+        FileTime[] times = new FileTime[entries.size()];
+        Integer[] order = new Integer[entries.size()];
+        for (int i = 0; i < entries.size(); i++) {
+            order[i] = i;
+            try {
+                sizes[i] = Files.size(entries.get(i));
+                times[i] = Files.getLastModifiedTime(entries.get(i));
+            } catch (NoSuchFileException e) {
+                times[i] = FileTime.fromMillis(0);
+            }
+            total += sizes[i];
+        }
+        Arrays.sort(order, Comparator.comparing(i -> times[i]));
+        for (int i = 0; i < order.length && total > maxBytes; i++) {
+            Files.deleteIfExists(entries.get(order[i]));
+            total -= sizes[order[i]];
+        }
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,327 @@
+import com.sun.net.httpserver.Headers;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Local HTTP service that keeps one JVM, with its compiled decoders, serving many requests
+ * instead of starting a cold {@code java Main} for each file. It only listens on the loopback address.
+ * <pre>
+ * POST /disassemble?OPTIONS              the request body is the ELF file
+ * GET  /disassemble?path=FILE&amp;OPTIONS    a file under one of the {@code roots}
+ * GET  /stats                            {@link Metrics} as JSON
+ * </pre>
+ * OPTIONS are {@code symbol=NAME}, {@code range=FROM-TO}, {@code all-sections}, {@code compressed},
+ * {@code cfg=dot|json}, {@code xref} and {@code xref-of=NAME}, on top of the settings the service was started with. The listing is streamed back as text/plain,
+ * with one {@code X-Elf-Diagnostic} header per problem found in the file. Errors are answered with
+ * 400 for a bad request, 403 for a path outside the roots, 404, 422 for a file that is not ELF and 500
+ * for the rest; a listing that breaks off after its 200 headers drops the connection, so that it
+ * cannot be taken for a complete one.
+ * <p>
+ * Any local process, and any web page in a browser on this machine, can send requests, so files are
+ * read by path only under the {@code roots} given at start, after symbolic links are resolved; with no
+ * roots {@code path=} is refused. Requests whose Host is not a loopback name are refused as well,
+ * which keeps pages that rebind their own host name to 127.0.0.1 out.
+ * <p>
+ * Requests run on {@code threads} workers with a queue of {@code 16 * threads}; a request that does
+ * not fit is answered with 503 at once. Symbol indexes of files read by path are shared through a
+ * {@link SymbolCache} and output blocks through the {@link ListingWriter} pool; with several
+ * {@code --threads} the parallel stages of all requests run on one ForkJoinPool.
+ */
+public final class DisassemblyService implements Closeable {
+    private static final int MAX_BODY = 256 << 20;
+    private static final int SYMBOL_CACHE_ENTRIES = 256;
+
+    private final ElfParser settings;
+    private final List<Path> roots = new ArrayList<>();
+    private final SymbolCache symbols = new SymbolCache(SYMBOL_CACHE_ENTRIES);
+    private final ThreadPoolExecutor executor;
+    // the decoding and printing tasks of all requests, null with one thread
+    private final ForkJoinPool pool;
+    private final HttpServer server;
+
+    private interface Handler {
+        void handle(HttpExchange exchange) throws IOException;
+    }
+
+    public DisassemblyService(ElfParser settings, int port, int threads, List<Path> roots) throws IOException {
+        this.settings = settings.copy();
+        for (Path root : roots) {
+            this.roots.add(root.toRealPath());
+        }
+        this.pool = this.settings.sharePool();
+        this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(threads * 16));
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        // without an executor of its own the server calls these on its dispatcher thread,
+        // which only hands the exchange over to the workers
+        server.createContext("/disassemble", exchange -> submit(exchange, this::disassemble));
+        server.createContext("/stats", exchange -> submit(exchange, this::stats));
+        server.start();
+    }
+
+    /**
+     * The port the service listens on, which is chosen by the system when 0 was asked for.
+     */
+    public int port() {
+        return server.getAddress().getPort();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdown();
+        if (pool != null) {
+            pool.shutdown();
+        }
+    }
+
+    private void submit(HttpExchange exchange, Handler handler) {
+        if (!isLoopback(exchange.getRequestHeaders().getFirst("Host"))) {
+            try {
+                reply(exchange, 403, "requests are accepted for localhost only");
+            } catch (IOException ignored) {
+                // the client is gone
+            } finally {
+                exchange.close();
+            }
+            return;
+        }
+        try {
+            executor.execute(() -> {
+                try {
+                    handler.handle(exchange);
+                } catch (IOException | RuntimeException e) {
+                    fail(exchange, 500, e.toString());
+                } finally {
+                    exchange.close();
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            try {
+                reply(exchange, 503, "too many requests");
+            } catch (IOException ignored) {
+                // the client is gone
+            } finally {
+                exchange.close();
+            }
+        }
+    }
+
+    /**
+     * Whether {@code host}, a Host header, names the loopback address.
+     */
+    private static boolean isLoopback(String host) {
+        if (host == null) {
+            return false;
+        }
+        String name = host.startsWith("[") ? host.substring(0, host.indexOf(']') + 1) : host.replaceFirst(":[0-9]*$", "");
+        return name.equalsIgnoreCase("localhost") || name.equals("127.0.0.1") || name.equals("[::1]");
+    }
+
+    private void stats(HttpExchange exchange) throws IOException {
+        byte[] json = settings.metrics().toJson().getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, json.length);
+        exchange.getResponseBody().write(json);
+    }
+
+    private void disassemble(HttpExchange exchange) throws IOException {
+        ElfParser parser = settings.copy();
+        List<ElfDiagnostic> diagnostics = new ArrayList<>();
+        parser.setDiagnosticListener((file, diagnostic) -> diagnostics.add(diagnostic));
+        Map<String, String> query;
+        try {
+            query = query(exchange.getRequestURI().getRawQuery());
+            for (Map.Entry<String, String> option : query.entrySet()) {
+                switch (option.getKey()) {
+                    case "path" -> {
+                    }
+                    case "symbol" -> parser.setSymbol(option.getValue());
+                    case "range" -> parser.setRange(option.getValue());
+                    case "all-sections" -> parser.setAllSections(true);
+                    case "compressed" -> parser.setCompressed(true);
+                    case "cfg" -> parser.setGraphFormat(option.getValue());
+                    case "xref" -> parser.setXref(true);
+                    case "xref-of" -> parser.setXrefQuery(option.getValue());
+                    default -> throw new IllegalArgumentException("unknown option " + option.getKey());
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            reply(exchange, 400, e.getMessage());
+            return;
+        }
+        String name;
+        ByteBuffer bytes;
+        switch (exchange.getRequestMethod()) {
+            case "POST" -> {
+                byte[] body = exchange.getRequestBody().readNBytes(MAX_BODY + 1);
+                if (body.length > MAX_BODY) {
+                    reply(exchange, 413, "files over " + (MAX_BODY >> 20) + " MB are not accepted");
+                    return;
+                }
+                name = "request";
+                bytes = ByteBuffer.wrap(body).order(ByteOrder.LITTLE_ENDIAN);
+            }
+            case "GET" -> {
+                name = query.get("path");
+                if (name == null) {
+                    reply(exchange, 400, "path expected");
+                    return;
+                }
+                if (roots.isEmpty()) {
+                    reply(exchange, 403, "files are not read by path; start the service with --serve-root DIR");
+                    return;
+                }
+                Path path;
+                BasicFileAttributes attributes;
+                try {
+                    path = Path.of(name).toRealPath();
+                    attributes = Files.readAttributes(path, BasicFileAttributes.class);
+                } catch (InvalidPathException e) {
+                    reply(exchange, 400, "bad path: " + e.getMessage());
+                    return;
+                } catch (NoSuchFileException e) {
+                    reply(exchange, 404, "file not found");
+                    return;
+                }
+                if (roots.stream().noneMatch(path::startsWith)) {
+                    reply(exchange, 403, name + " is outside the served directories");
+                    return;
+                }
+                if (!attributes.isRegularFile()) {
+                    reply(exchange, 400, name + " is not a regular file");
+                    return;
+                }
+                bytes = ElfLoader.map(path.toString());
+                parser.setSymbolCache(symbols, path + "\0" + attributes.lastModifiedTime().toMillis()
+                        + "\0" + attributes.size());
+            }
+            default -> {
+                reply(exchange, 405, "GET or POST expected");
+                return;
+            }
+        }
+        Response response = new Response(exchange, diagnostics);
+        try {
+            parser.disassemble(name, bytes, response);
+            response.commit();
+        } catch (MalformedElfException e) {
+            fail(exchange, 422, e.getMessage());
+        } catch (IllegalArgumentException e) {
+            fail(exchange, 400, e.getMessage());
+        }
+    }
+
+    /**
+     * Answers with {@code status} if nothing was sent yet. Otherwise the listing broke off after its
+     * 200 headers: the response stream is replaced by one that fails to close, so that closing the
+     * exchange drops the connection instead of ending the chunked body and the client sees a broken transfer.
+     */
+    private static void fail(HttpExchange exchange, int status, String message) {
+        if (exchange.getResponseCode() < 0) {
+            try {
+                reply(exchange, status, message);
+            } catch (IOException ignored) {
+                // the client is gone
+            }
+            return;
+        }
+        exchange.setStreams(null, new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                throw new IOException("response aborted");
+            }
+
+            @Override
+            public void close() throws IOException {
+                throw new IOException("response aborted");
+            }
+        });
+    }
+
+    private static void reply(HttpExchange exchange, int status, String message) throws IOException {
+        byte[] body = (message + "\n").getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+        exchange.sendResponseHeaders(status, body.length);
+        exchange.getResponseBody().write(body);
+    }
+
+    /**
+     * Options of a query string in their order; an option without a value maps to "".
+     */
+    private static Map<String, String> query(String raw) {
+        Map<String, String> options = new LinkedHashMap<>();
+        if (raw == null || raw.isEmpty()) {
+            return options;
+        }
+        for (String pair : raw.split("&")) {
+            int eq = pair.indexOf('=');
+            String key = URLDecoder.decode(eq < 0 ? pair : pair.substring(0, eq), StandardCharsets.UTF_8);
+            options.put(key, eq < 0 ? "" : URLDecoder.decode(pair.substring(eq + 1), StandardCharsets.UTF_8));
+        }
+        return options;
+    }
+
+    /**
+     * Sends the 200 headers, with the diagnostics, only when the first bytes of the listing are written,
+     * so a failure before that can still be answered with an error status. The exchange is closed by its handler.
+     */
+    private static final class Response extends OutputStream {
+        private final HttpExchange exchange;
+        private final List<ElfDiagnostic> diagnostics;
+        private OutputStream body;
+
+        Response(HttpExchange exchange, List<ElfDiagnostic> diagnostics) {
+            this.exchange = exchange;
+            this.diagnostics = diagnostics;
+        }
+
+        void commit() throws IOException {
+            if (body != null) {
+                return;
+            }
+            Headers headers = exchange.getResponseHeaders();
+            headers.set("Content-Type", "text/plain; charset=utf-8");
+            for (ElfDiagnostic diagnostic : diagnostics) {
+                headers.add("X-Elf-Diagnostic", diagnostic.toString());
+            }
+            exchange.sendResponseHeaders(200, 0);
+            body = exchange.getResponseBody();
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            commit();
+            body.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            commit();
+            body.write(b, off, len);
+        }
+    }
+}
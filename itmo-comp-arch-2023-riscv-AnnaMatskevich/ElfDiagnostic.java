@@ -0,0 +1,29 @@
+/**
+ * A problem found while validating an input file. Only a {@link MalformedElfException} stops a file;
+ * the others are reported and the listing is written for the part that could be read.
+ * {@code offset} is the file offset of the bad header or data, -1 if there is none.
+ */
+public record ElfDiagnostic(Kind kind, long offset, String message) {
+    public enum Kind {
+        NOT_ELF, UNSUPPORTED, TRUNCATED_HEADER, SECTION_TABLE, SECTION_BOUNDS, SECTION_NAMES, SYMBOL_TABLE, SYMBOL_NAMES;
+
+        /**
+         * Lower-case name with dashes, as printed and counted in the metrics.
+         */
+        public String code() {
+            return name().toLowerCase().replace('_', '-');
+        }
+    }
+
+    /**
+     * Receives the diagnostics of every file; called from the threads that disassemble the files.
+     */
+    public interface Listener {
+        void report(String file, ElfDiagnostic diagnostic);
+    }
+
+    @Override
+    public String toString() {
+        return offset < 0 ? kind.code() + ": " + message : kind.code() + " at 0x" + Long.toHexString(offset) + ": " + message;
+    }
+}
@@ -0,0 +1,316 @@
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * Field offsets and widths of the file header, section headers and symbols of one ELF class.
+ * The layout is chosen once per file from {@code e_ident[EI_CLASS]}, so the loops over sections
+ * and symbols read their fields without checking the width every time.
+ * 64-bit addresses are kept by their low 32 bits, and offsets and sizes beyond 2 GiB are clamped,
+ * since a mapped file is never larger than that.
+ */
+abstract class ElfLayout {
+    static final ElfLayout ELF32 = new Elf32();
+    static final ElfLayout ELF64 = new Elf64();
+
+    private static final int ELF_MAGIC = 0x464c457f;
+    private static final int EI_CLASS = 4;
+    private static final int EI_DATA = 5;
+    private static final int ELFCLASS32 = 1;
+    private static final int ELFCLASS64 = 2;
+    private static final int ELFDATA2LSB = 1;
+    private static final int EM_RISCV = 0xf3;
+
+    /**
+     * The layout of {@code bytes}, after checking the identification and that the whole file header is there.
+     * A machine other than RISC-V is only reported to {@code diagnostics}.
+     */
+    static ElfLayout of(ByteBuffer bytes, List<ElfDiagnostic> diagnostics) throws MalformedElfException {
+        if (bytes.limit() < 16 || bytes.getInt(0) != ELF_MAGIC) {
+            throw new MalformedElfException(ElfDiagnostic.Kind.NOT_ELF, 0, "not an ELF file");
+        }
+        int elfClass = bytes.get(EI_CLASS);
+        if (elfClass != ELFCLASS32 && elfClass != ELFCLASS64) {
+            throw new MalformedElfException(ElfDiagnostic.Kind.UNSUPPORTED, EI_CLASS, "unknown ELF class " + elfClass);
+        }
+        if (bytes.get(EI_DATA) != ELFDATA2LSB) {
+            throw new MalformedElfException(ElfDiagnostic.Kind.UNSUPPORTED, EI_DATA, "not a little-endian file");
+        }
+        ElfLayout layout = elfClass == ELFCLASS64 ? ELF64 : ELF32;
+        if (bytes.limit() < layout.headerSize()) {
+            throw new MalformedElfException(ElfDiagnostic.Kind.TRUNCATED_HEADER, bytes.limit(),
+                    "file header needs " + layout.headerSize() + " bytes, the file has " + bytes.limit());
+        }
+        int machine = bytes.getShort(18) & 0xffff;
+        if (machine != EM_RISCV) {
+            diagnostics.add(new ElfDiagnostic(ElfDiagnostic.Kind.UNSUPPORTED, 18, "machine 0x" + Integer.toHexString(machine) + " is not RISC-V"));
+        }
+        return layout;
+    }
+
+    abstract boolean is64();
+
+    abstract int headerSize();
+
+    /**
+     * Smallest {@code e_shentsize} that holds all the section header fields read below.
+     */
+    abstract int minSectionHeaderSize();
+
+    abstract int flags(ByteBuffer bytes);
+
+    abstract int sectionTableOffset(ByteBuffer bytes);
+
+    abstract int sectionHeaderSize(ByteBuffer bytes);
+
+    abstract int sectionCount(ByteBuffer bytes);
+
+    abstract int sectionNamesIndex(ByteBuffer bytes);
+
+    int sectionName(ByteBuffer bytes, int header) {
+        return bytes.getInt(header);
+    }
+
+    int sectionType(ByteBuffer bytes, int header) {
+        return bytes.getInt(header + 4);
+    }
+
+    abstract int sectionFlags(ByteBuffer bytes, int header);
+
+    abstract int sectionAddr(ByteBuffer bytes, int header);
+
+    abstract int sectionOffset(ByteBuffer bytes, int header);
+
+    abstract int sectionSize(ByteBuffer bytes, int header);
+
+    abstract int sectionLink(ByteBuffer bytes, int header);
+
+    abstract int sectionEntsize(ByteBuffer bytes, int header);
+
+    /**
+     * Size of one symbol table entry.
+     */
+    abstract int symbolEntrySize();
+
+    int symbolName(ByteBuffer bytes, int symbol) {
+        return bytes.getInt(symbol);
+    }
+
+    abstract long symbolValue(ByteBuffer bytes, int symbol);
+
+    abstract long symbolSize(ByteBuffer bytes, int symbol);
+
+    abstract int symbolInfo(ByteBuffer bytes, int symbol);
+
+    abstract int symbolOther(ByteBuffer bytes, int symbol);
+
+    abstract int symbolIndex(ByteBuffer bytes, int symbol);
+
+    private static int clamp(long value) {
+        return value < 0 || value > Integer.MAX_VALUE ? Integer.MAX_VALUE : (int) value;
+    }
+
+    private static final class Elf32 extends ElfLayout {
+        @Override
+        boolean is64() {
+            return false;
+        }
+
+        @Override
+        int headerSize() {
+            return 52;
+        }
+
+        @Override
+        int minSectionHeaderSize() {
+            return 40;
+        }
+
+        @Override
+        int flags(ByteBuffer bytes) {
+            return bytes.getInt(36);
+        }
+
+        @Override
+        int sectionTableOffset(ByteBuffer bytes) {
+            return bytes.getInt(32);
+        }
+
+        @Override
+        int sectionHeaderSize(ByteBuffer bytes) {
+            return bytes.getShort(46) & 0xffff;
+        }
+
+        @Override
+        int sectionCount(ByteBuffer bytes) {
+            return bytes.getShort(48) & 0xffff;
+        }
+
+        @Override
+        int sectionNamesIndex(ByteBuffer bytes) {
+            return bytes.getShort(50) & 0xffff;
+        }
+
+        @Override
+        int sectionFlags(ByteBuffer bytes, int header) {
+            return bytes.getInt(header + 8);
+        }
+
+        @Override
+        int sectionAddr(ByteBuffer bytes, int header) {
+            return bytes.getInt(header + 12);
+        }
+
+        @Override
+        int sectionOffset(ByteBuffer bytes, int header) {
+            return bytes.getInt(header + 16);
+        }
+
+        @Override
+        int sectionSize(ByteBuffer bytes, int header) {
+            return bytes.getInt(header + 20);
+        }
+
+        @Override
+        int sectionLink(ByteBuffer bytes, int header) {
+            return bytes.getInt(header + 24);
+        }
+
+        @Override
+        int sectionEntsize(ByteBuffer bytes, int header) {
+            return bytes.getInt(header + 36);
+        }
+
+        @Override
+        int symbolEntrySize() {
+            return 16;
+        }
+
+        @Override
+        long symbolValue(ByteBuffer bytes, int symbol) {
+            return Integer.toUnsignedLong(bytes.getInt(symbol + 4));
+        }
+
+        @Override
+        long symbolSize(ByteBuffer bytes, int symbol) {
+            // signed, as the ELF32 listing has always printed st_size: 0xffffffff is -1
+            return bytes.getInt(symbol + 8);
+        }
+
+        @Override
+        int symbolInfo(ByteBuffer bytes, int symbol) {
+            return bytes.get(symbol + 12) & 0xff;
+        }
+
+        @Override
+        int symbolOther(ByteBuffer bytes, int symbol) {
+            return bytes.get(symbol + 13) & 0xff;
+        }
+
+        @Override
+        int symbolIndex(ByteBuffer bytes, int symbol) {
+            return bytes.getShort(symbol + 14) & 0xffff;
+        }
+    }
+
+    private static final class Elf64 extends ElfLayout {
+        @Override
+        boolean is64() {
+            return true;
+        }
+
+        @Override
+        int headerSize() {
+            return 64;
+        }
+
+        @Override
+        int minSectionHeaderSize() {
+            return 64;
+        }
+
+        @Override
+        int flags(ByteBuffer bytes) {
+            return bytes.getInt(48);
+        }
+
+        @Override
+        int sectionTableOffset(ByteBuffer bytes) {
+            return clamp(bytes.getLong(40));
+        }
+
+        @Override
+        int sectionHeaderSize(ByteBuffer bytes) {
+            return bytes.getShort(58) & 0xffff;
+        }
+
+        @Override
+        int sectionCount(ByteBuffer bytes) {
+            return bytes.getShort(60) & 0xffff;
+        }
+
+        @Override
+        int sectionNamesIndex(ByteBuffer bytes) {
+            return bytes.getShort(62) & 0xffff;
+        }
+
+        @Override
+        int sectionFlags(ByteBuffer bytes, int header) {
+            return (int) bytes.getLong(header + 8);
+        }
+
+        @Override
+        int sectionAddr(ByteBuffer bytes, int header) {
+            return (int) bytes.getLong(header + 16);
+        }
+
+        @Override
+        int sectionOffset(ByteBuffer bytes, int header) {
+            return clamp(bytes.getLong(header + 24));
+        }
+
+        @Override
+        int sectionSize(ByteBuffer bytes, int header) {
+            return clamp(bytes.getLong(header + 32));
+        }
+
+        @Override
+        int sectionLink(ByteBuffer bytes, int header) {
+            return bytes.getInt(header + 40);
+        }
+
+        @Override
+        int sectionEntsize(ByteBuffer bytes, int header) {
+            return clamp(bytes.getLong(header + 56));
+        }
+
+        @Override
+        int symbolEntrySize() {
+            return 24;
+        }
+
+        @Override
+        long symbolValue(ByteBuffer bytes, int symbol) {
+            return bytes.getLong(symbol + 8);
+        }
+
+        @Override
+        long symbolSize(ByteBuffer bytes, int symbol) {
+            return bytes.getLong(symbol + 16);
+        }
+
+        @Override
+        int symbolInfo(ByteBuffer bytes, int symbol) {
+            return bytes.get(symbol + 4) & 0xff;
+        }
+
+        @Override
+        int symbolOther(ByteBuffer bytes, int symbol) {
+            return bytes.get(symbol + 5) & 0xff;
+        }
+
+        @Override
+        int symbolIndex(ByteBuffer bytes, int symbol) {
+            return bytes.getShort(symbol + 6) & 0xffff;
+        }
+    }
+}
@@ -0,0 +1,30 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Maps an ELF file into memory instead of copying it onto the heap.
+ * The returned buffer is read-only and little-endian, as RISC-V ELF files are.
+ * <p>
+ * The whole file is one mapping, and the parser addresses it with int offsets, so files of 2 GiB and
+ * more are rejected. Streaming the listing keeps the heap small however large the output is, but the
+ * input still has to fit in one mapping.
+ */
+public final class ElfLoader {
+    private ElfLoader() {
+
+    }
+
+    public static ByteBuffer map(String inputFile) throws IOException {
+        try (FileChannel channel = FileChannel.open(Path.of(inputFile), StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("file is too large: " + size + " bytes, at most " + Integer.MAX_VALUE + " can be mapped");
+            }
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, size).order(ByteOrder.LITTLE_ENDIAN);
+        }
+    }
+}
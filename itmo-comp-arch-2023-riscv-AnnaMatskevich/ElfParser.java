@@ -1,27 +1,348 @@
-import java.io.FileInputStream;
+import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
-import java.util.HashMap;
-import java.util.Map;
-import java.util.Objects;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.IntFunction;
 
+// stage timers are try-with-resources that the body never references
+@SuppressWarnings("try")
 public class ElfParser {
+    private int threads = 1;
+    private boolean allSections = false;
+    private DisassemblyCache cache;
+    private boolean incremental = false;
+    private boolean binary = false;
+    private String symbol;
+    private boolean range = false;
+    private int rangeStart;
+    private int rangeEnd;
+    private Metrics metrics = Metrics.DISABLED;
+    private boolean compressed = false;
+    private ElfDiagnostic.Listener diagnostics = (file, diagnostic) -> System.err.println(file + ": " + diagnostic);
+    private SymbolCache symbols;
+    private String symbolKey;
+    private ControlFlowGraph.Format graph;
+    private boolean xref = false;
+    private String xrefQuery;
+    private ForkJoinPool pool;
+
     public ElfParser() {
 
     }
 
+    /**
+     * A parser with the same settings that shares the cache, metrics and diagnostic listener of this one,
+     * so that settings can be changed for a single run.
+     */
+    ElfParser copy() {
+        ElfParser copy = new ElfParser();
+        copy.threads = threads;
+        copy.allSections = allSections;
+        copy.cache = cache;
+        copy.incremental = incremental;
+        copy.binary = binary;
+        copy.symbol = symbol;
+        copy.range = range;
+        copy.rangeStart = rangeStart;
+        copy.rangeEnd = rangeEnd;
+        copy.metrics = metrics;
+        copy.compressed = compressed;
+        copy.diagnostics = diagnostics;
+        copy.symbols = symbols;
+        copy.symbolKey = symbolKey;
+        copy.graph = graph;
+        copy.xref = xref;
+        copy.xrefQuery = xrefQuery;
+        copy.pool = pool;
+        return copy;
+    }
+
+    /**
+     * Number of threads used to decode and print .text; 1 keeps everything on the calling thread.
+     */
+    public void setThreads(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("threads must be positive: " + threads);
+        }
+        this.threads = threads;
+    }
+
+    /**
+     * Makes the following runs, and those of copies made after this, share one pool of {@code threads}
+     * workers for their parallel stages instead of making one each, and returns it; the caller shuts it down.
+     * With one thread there is no pool and null is returned.
+     */
+    ForkJoinPool sharePool() {
+        pool = threads > 1 ? new ForkJoinPool(threads) : null;
+        return pool;
+    }
+
+    /**
+     * Whether to list every executable section, each under its own name, instead of only .text.
+     */
+    public void setAllSections(boolean allSections) {
+        this.allSections = allSections;
+    }
+
+    /**
+     * Keeps rendered listings in {@code dir}, at most {@code maxBytes} of them, and reuses them
+     * for inputs whose sections did not change.
+     */
+    public void setCache(Path dir, long maxBytes) throws IOException {
+        this.cache = new DisassemblyCache(dir, maxBytes);
+    }
+
+    /**
+     * Reuses the unchanged functions of the previous listing written to the same output file.
+     * The function blocks of a listing are recorded in {@code <output>.idx}.
+     */
+    public void setIncremental(boolean incremental) {
+        this.incremental = incremental;
+    }
+
+    /**
+     * Writes a {@link BinaryListing} of the instructions instead of the text listing;
+     * {@link #render} turns it back into the .text part of the listing.
+     */
+    public void setBinary(boolean binary) {
+        this.binary = binary;
+    }
+
+    /**
+     * Lists only the instructions at addresses {@code [from, to)}, compared as unsigned values,
+     * of .text or, with {@link #setAllSections}, of the executable section containing {@code from}.
+     * Only that slice is decoded, and L&lt;n&gt; labels are numbered within it. The symbol table is not printed.
+     */
+    public void setRange(int from, int to) {
+        this.range = true;
+        this.rangeStart = from;
+        this.rangeEnd = to;
+    }
+
+    /**
+     * {@link #setRange(int, int)} from {@code "FROM-TO"}, where both are decimal, 0x hex or 0 octal numbers.
+     */
+    public void setRange(String range) {
+        String[] bounds = range.split("-", 2);
+        if (bounds.length != 2) {
+            throw new IllegalArgumentException("range expected as FROM-TO");
+        }
+        setRange(Long.decode(bounds[0]).intValue(), Long.decode(bounds[1]).intValue());
+    }
+
+    /**
+     * Lists only the FUNC symbol called {@code name}, like {@link #setRange} over its addresses.
+     * A symbol without a size extends to the next FUNC symbol or the end of the section.
+     */
+    public void setSymbol(String name) {
+        this.range = true;
+        this.symbol = name;
+    }
+
+    /**
+     * Decodes compressed (RVC) instructions even if the ELF header does not have the RVC flag.
+     */
+    public void setCompressed(boolean compressed) {
+        this.compressed = compressed;
+    }
+
+    /**
+     * Writes the control-flow graph of every function instead of the listing, as {@code "dot"} or {@code "json"};
+     * null goes back to the listing. A range or symbol limits the graph to it.
+     */
+    public void setGraphFormat(String format) {
+        if (format == null) {
+            this.graph = null;
+            return;
+        }
+        switch (format) {
+            case "dot" -> this.graph = ControlFlowGraph.Format.DOT;
+            case "json" -> this.graph = ControlFlowGraph.Format.JSON;
+            default -> throw new IllegalArgumentException("unknown graph format: " + format);
+        }
+    }
+
+    /**
+     * Writes the cross-reference index instead of the listing: for every FUNC and OBJECT symbol and every
+     * label, the calls, jumps, branches and data accesses that refer to it, and for functions what they
+     * refer to outside themselves. A range or symbol limits the instructions scanned.
+     */
+    public void setXref(boolean xref) {
+        this.xref = xref;
+    }
+
+    /**
+     * Limits the cross-reference index to the symbols or labels called {@code name}, and switches it on.
+     */
+    public void setXrefQuery(String name) {
+        this.xref = true;
+        this.xrefQuery = name;
+    }
+
+    /**
+     * Where the problems found in the input files go; by default they are printed to System.err.
+     * Files with such problems are still listed as far as they can be read.
+     */
+    public void setDiagnosticListener(ElfDiagnostic.Listener listener) {
+        this.diagnostics = listener;
+    }
+
+    /**
+     * Reuses the symbol index stored in {@code symbols} under {@code key}, or stores it there.
+     * The key must tell the input apart from any other file, e.g. by its path, modification time and size.
+     */
+    void setSymbolCache(SymbolCache symbols, String key) {
+        this.symbols = symbols;
+        this.symbolKey = key;
+    }
+
+    /**
+     * Switches on stage timings and counters for the following runs and returns them;
+     * they are also registered as an MXBean and stages are recorded as JFR events.
+     */
+    public Metrics enableMetrics() {
+        metrics = Metrics.create();
+        return metrics;
+    }
+
+    Metrics metrics() {
+        return metrics;
+    }
+
+    /**
+     * Prints the instructions of a binary listing as the .text part of the text listing.
+     */
+    public void render(String inputFile, String outputFile) throws IOException {
+        BinaryListing.Reader listing = BinaryListing.Reader.open(inputFile);
+        try (ListingWriter out = new ListingWriter(new FileOutputStream(outputFile))) {
+            out.append(".text\n");
+            listing.render(out, 0, listing.size());
+        }
+    }
+
     public void parse(String inputFile, String outputFile) {
-        Disassembler d = new Disassembler(inputFile, outputFile);
+        ByteBuffer bytes;
+        Metrics.Timer load = metrics.stage(Metrics.Stage.LOAD);
+        try {
+            bytes = ElfLoader.map(inputFile);
+        } catch (NoSuchFileException e) {
+            report("file not found");
+            return;
+        } catch (IOException e) {
+            report("cant read from file");
+            return;
+        } finally {
+            load.close();
+        }
+        Disassembler d;
+        try {
+            d = open(inputFile, bytes);
+        } catch (MalformedElfException e) {
+            diagnose(inputFile, e.diagnostic());
+            return;
+        }
+        try {
+            d.write(outputFile);
+        } catch (FileNotFoundException e) {
+            report("no output file");
+        } catch (IOException e) {
+            report("cant write to file");
+        } catch (IllegalArgumentException e) {
+            report(e.getMessage());
+        }
+    }
+
+    private void report(String error) {
+        metrics.error(error);
+        System.err.println(error);
+    }
+
+    /**
+     * Checks the headers of {@code bytes} and passes the problems that do not stop it to the listener.
+     */
+    private Disassembler open(String inputFile, ByteBuffer bytes) throws MalformedElfException {
+        Disassembler d = new Disassembler(bytes, this);
+        for (ElfDiagnostic diagnostic : d.diagnostics) {
+            diagnose(inputFile, diagnostic);
+        }
+        return d;
+    }
+
+    private void diagnose(String inputFile, ElfDiagnostic diagnostic) {
+        metrics.error(diagnostic.kind().code());
+        diagnostics.report(inputFile, diagnostic);
+    }
+
+    /**
+     * Same as {@link #parse}, but failures are thrown instead of being reported to System.err.
+     */
+    public void disassemble(String inputFile, String outputFile) throws IOException {
+        try {
+            ByteBuffer bytes;
+            try (Metrics.Timer load = metrics.stage(Metrics.Stage.LOAD)) {
+                bytes = ElfLoader.map(inputFile);
+            }
+            open(inputFile, bytes).write(outputFile);
+        } catch (MalformedElfException e) {
+            metrics.error(e.diagnostic().kind().code());
+            throw e;
+        } catch (IOException | RuntimeException e) {
+            metrics.error(e.getClass().getSimpleName());
+            throw e;
+        }
+    }
+
+    /**
+     * Writes the text listing of the ELF file in {@code bytes} to {@code output} and closes it.
+     * {@code name} identifies the file to the diagnostic listener. Binary and incremental output
+     * need files and are not written here.
+     */
+    public void disassemble(String name, ByteBuffer bytes, OutputStream output) throws IOException {
+        try {
+            open(name, bytes).write(output);
+        } catch (MalformedElfException e) {
+            metrics.error(e.diagnostic().kind().code());
+            throw e;
+        } catch (IOException | RuntimeException e) {
+            metrics.error(e.getClass().getSimpleName());
+            throw e;
+        }
+    }
+
+    /**
+     * Decodes the .text section of {@code inputFile} as a stream of instructions.
+     * Labels are collected before the stream is returned, instructions are decoded as they are read.
+     * A range or symbol set with {@link #setRange} or {@link #setSymbol} limits the stream to it.
+     */
+    public InstructionStream instructions(String inputFile) throws IOException {
+        Disassembler d = open(inputFile, ElfLoader.map(inputFile));
+        if (range) {
+            d.selectRange();
+        }
+        d.parseSymTab();
+        d.collectLabels();
+        return d.instructions();
     }
 
 
-    private static class Disassembler {
-        int sectionHeadderOffset;
-        int sectionNameIndexInSectionHeadder;
-        int sectionHeadderSize = 40;
-        int sectionNameOffset;
+    static class Disassembler {
         int symtabOffset = 0;
         int symtabSize = 0;
         int strTabOffset = 0;
@@ -30,553 +351,1039 @@ public class ElfParser {
         int textSize = 0;
         int textAddr = 0;
         int textLinesCount;
-        int sectionHeadersCount;
         int symtabLineSize;
-        private int[] bytes;
-        private final Map<Integer, String> functionNames = new HashMap<>();
+        private final ByteBuffer bytes;
+        private final SectionTable sections;
+        private final boolean allSections;
+        private final DisassemblyCache cache;
+        private final boolean incremental;
+        private final boolean binary;
+        private final boolean range;
+        private final String symbol;
+        private final int rangeStart;
+        private final int rangeEnd;
+        private final Metrics metrics;
+        private final SymbolCache symbols;
+        private final String symbolKey;
+        private final ControlFlowGraph.Format graph;
+        private final boolean xref;
+        private final String xrefQuery;
+        final List<ElfDiagnostic> diagnostics = new ArrayList<>();
+        // instructions are 2 or 4 bytes long and text positions count halfwords instead of words
+        private final ElfLayout layout;
+        private final Isa isa;
+        private final boolean compressed;
+        private final int unit;
+        private int[] functionStarts = new int[16];
+        private int functionCount = 0;
+        private AddressMap functionNames = new AddressMap();
+        private SymbolTable symbolTable;
         private int lCount = 0;
-        private static final Map<Integer, String> BIND = Map.of(
-                0, "LOCAL",
-                1, "GLOBAL",
-                2, "WEAK",
-                10, "LOOS",
-                12, "HIOS",
-                13, "LOPROC",
-                15, "HIPROC"
-        );
-
-        private static final Map<Integer, String> TYPE = new HashMap<>();
-        private static final Map<Integer, String> VISIBILITY = Map.of(
-                0, "DEFAULT",
-                1, "INTERNAL",
-                2, "HIDDEN",
-                3, "PROTECTED",
-                4, "EXPORTED",
-                5, "SINGLETON",
-                6, "ELIMINATE"
-        );
-
-        private static final Map<Integer, String> INDEX = Map.of(
-                0, "UNDEF",
-                0xff00, "LOPROC",
-                0xff1f, "HIPROC",
-                0xff20, "LOOS",
-                0xff3f, "HIOS",
-                0xfff1, "ABS",
-                0xfff2, "COMMON",
-                0xffff, "XINDEX"
-        );
-
-        OutputStream outputStream;
-
-
-        private Disassembler(String inputFile, String outputFile) {
-            try {
-                FileInputStream stream = new FileInputStream(inputFile);
-                try {
-                    bytes = new int[stream.available() + 1];
-                    int k = stream.read();
-                    int counter = 0;
-                    while (k != -1) {
-                        bytes[counter++] = k;
-                        k = stream.read();
-                    }
+        private final int threads;
+        // shared by the parallel stages of one run, or by all runs of the settings, see withPool
+        private ForkJoinPool pool;
+        private static final int MIN_CHUNK = 1 << 14;
+        // symbol table rows printed by one task
+        private static final int SYMTAB_CHUNK = 1 << 13;
+        private static final OpcodeScan SCAN = OpcodeScan.best();
+        private static final int EF_RISCV_RVC = 0x1;
+        ListingWriter out;
 
-                } catch (IOException e) {
-                    System.err.println("cant read from file");
-                } finally {
-                    stream.close();
-                }
-            } catch (IOException e) {
-                System.err.println("file not found");
+
+        /**
+         * Reads the section headers and finds .text and the symbol table. A file that is not ELF throws,
+         * other problems are added to {@link #diagnostics} and the parts they concern are left out or cut short.
+         */
+        Disassembler(ByteBuffer bytes, ElfParser settings) throws MalformedElfException {
+            this.bytes = bytes;
+            this.threads = settings.threads;
+            this.pool = settings.pool;
+            this.allSections = settings.allSections;
+            this.cache = settings.cache;
+            this.incremental = settings.incremental && !settings.allSections && !settings.range && settings.graph == null
+                    && !settings.xref;
+            this.binary = settings.binary;
+            this.range = settings.range;
+            this.symbol = settings.symbol;
+            this.rangeStart = settings.rangeStart;
+            this.rangeEnd = settings.rangeEnd;
+            this.metrics = settings.metrics;
+            this.symbols = settings.symbols;
+            this.symbolKey = settings.symbolKey;
+            this.graph = settings.graph;
+            this.xref = settings.xref;
+            this.xrefQuery = settings.xrefQuery;
+            this.layout = ElfLayout.of(bytes, diagnostics);
+            this.isa = new Isa(layout.is64(), settings.compressed || (layout.flags(bytes) & EF_RISCV_RVC) != 0);
+            this.compressed = isa.compressed;
+            this.unit = compressed ? 2 : 4;
+            try (Metrics.Timer timer = metrics.stage(Metrics.Stage.SECTIONS)) {
+                this.sections = new SectionTable(bytes, layout, diagnostics);
+                parseSections();
             }
+        }
 
-            try {
-                outputStream = new FileOutputStream(outputFile);
-                try {
-                    parseElf();
-                } catch (IOException e) {
-                    System.err.println("cant write to file");
-                } finally {
-                    outputStream.close();
+        void write(String outputFile) throws IOException {
+            withPool(() -> {
+                if (binary && graph == null && !xref) {
+                    writeBinary(Path.of(outputFile));
+                } else if (incremental) {
+                    writeIncremental(Path.of(outputFile));
+                } else if (cache != null) {
+                    writeCached(Path.of(outputFile));
+                } else {
+                    write(new FileOutputStream(outputFile));
+                }
+            });
+        }
+
+        private void writeBinary(Path output) throws IOException {
+            int[] texts = allSections ? sections.executable() : new int[]{sections.find(".text")};
+            parseSymTab();
+            for (int section : texts) {
+                selectText(section);
+                collectLabels();
+            }
+            try (Metrics.Timer timer = metrics.stage(Metrics.Stage.PRINT);
+                 BinaryListing.Writer writer = new BinaryListing.Writer(output, functionNames, isa)) {
+                for (int section : texts) {
+                    selectText(section);
+                    InstructionStream instructions = instructions();
+                    for (DecodedText block = instructions.nextBlock(); block != null; block = instructions.nextBlock()) {
+                        metrics.count(block, 0, block.size);
+                        for (int i = 0; i < block.size; i++) {
+                            writer.add(block.addr[i], block.code[i], block.compressed ? block.length[i] : 4,
+                                    block.op[i], block.imm[i]);
+                        }
+                    }
                 }
-            } catch (IOException e) {
-                System.err.println("no output file");
             }
+            metrics.file(lCount, Files.size(output));
+        }
 
+        /**
+         * Writes the listing to a temporary file next to {@code output} and then replaces the old listing,
+         * so a cache entry that fails to copy halfway does not leave a half-written listing behind.
+         */
+        private void writeCached(Path output) throws IOException {
+            Path tmp = output.resolveSibling(output.getFileName() + ".tmp");
+            try {
+                write(new FileOutputStream(tmp.toFile()));
+            } catch (IOException | RuntimeException e) {
+                Files.deleteIfExists(tmp);
+                throw e;
+            }
+            Files.move(tmp, output, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
         }
 
-        private int bytesToInt(int first, int byteCount) {
-            int ans = 0;
-            for (int i = first + byteCount - 1; i >= first; i--) {
-                ans = ans << 8;
-                ans += bytes[i];
+        /**
+         * Writes the listing to a temporary file next to {@code output}, copying the function blocks
+         * the index of the previous listing says are unchanged, and then replaces the old listing and index.
+         */
+        private void writeIncremental(Path output) throws IOException {
+            Path indexFile = output.resolveSibling(output.getFileName() + ".idx");
+            Path tmp = output.resolveSibling(output.getFileName() + ".tmp");
+            IncrementalIndex previous = IncrementalIndex.read(indexFile, output);
+            IncrementalIndex index;
+            try (FileChannel old = previous != null ? FileChannel.open(output, StandardOpenOption.READ) : null) {
+                out = new ListingWriter(new FileOutputStream(tmp.toFile()));
+                try {
+                    parseSymTab();
+                    collectLabels();
+                    out.append(".text\n");
+                    try (Metrics.Timer timer = metrics.stage(Metrics.Stage.PRINT)) {
+                        index = printTextIncremental(previous, old);
+                        out.append("\n\n.symtab\n\n");
+                        part(symtabKey(), this::printSymTab);
+                    }
+                } finally {
+                    out.close();
+                }
+                index.outputSize = out.size();
+            } catch (IOException | RuntimeException e) {
+                Files.deleteIfExists(tmp);
+                throw e;
             }
-            return ans;
+            Files.move(tmp, output, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            index.write(indexFile);
+            metrics.file(lCount, index.outputSize);
         }
 
-        private String bytestoString(int start) {
-            StringBuilder sb = new StringBuilder();
-            int k = 0;
-            while (bytes[start + k] != 0) {
-                sb.append((char) bytes[start + k]);
-                k++;
+        /**
+         * Prints .text in blocks that start at the FUNC symbols. A block is copied from {@code old}
+         * when {@code previous} has a block at the same address with the same fingerprint.
+         */
+        private IncrementalIndex printTextIncremental(IncrementalIndex previous, FileChannel old) throws IOException {
+            int[] starts = blockStarts();
+            IncrementalIndex index = new IncrementalIndex(starts.length);
+            DecodedText text = new DecodedText(InstructionStream.BLOCK_SIZE, isa);
+            ByteBuffer copy = ByteBuffer.allocate(ListingWriter.BLOCK_SIZE);
+            MessageDigest digest = sha256();
+            for (int b = 0; b < starts.length; b++) {
+                int from = starts[b];
+                int to = b + 1 < starts.length ? starts[b + 1] : textLinesCount;
+                byte[] fingerprint = fingerprint(digest, from, to);
+                long offset = out.size();
+                int same = previous == null ? -1 : previous.find(textAddr + from * unit, to - from, fingerprint);
+                if (same >= 0) {
+                    long position = previous.offset[same];
+                    long left = previous.length[same];
+                    while (left > 0) {
+                        copy.clear().limit((int) Math.min(copy.capacity(), left));
+                        int n = old.read(copy, position);
+                        if (n < 0) {
+                            throw new IOException("previous listing is truncated");
+                        }
+                        out.write(copy.array(), 0, n);
+                        position += n;
+                        left -= n;
+                    }
+                } else {
+                    for (int i = from; i < to; ) {
+                        i += decode(text, i, Math.min(InstructionStream.BLOCK_SIZE, to - i));
+                        printText(out, text, 0, text.size);
+                    }
+                }
+                index.add(textAddr + from * unit, to - from, offset, (int) (out.size() - offset), fingerprint);
             }
-            return sb.toString();
+            return index;
         }
 
-        private String rdConvert(int rd) {
-            switch (rd) {
-                case 0 -> {
-                    return "zero";
+        /**
+         * Positions where the blocks of .text start: the section start and every FUNC symbol inside it
+         * that is at an instruction boundary.
+         */
+        private int[] blockStarts() {
+            int[] starts = new int[functionCount + 1];
+            int n = 0;
+            starts[n++] = 0;
+            for (int k = 0; k < functionCount; k++) {
+                int word = functionStarts[k] - textAddr;
+                if (word > 0 && word < textSize && word % unit == 0) {
+                    starts[n++] = word / unit;
                 }
-                case 1 -> {
-                    return "ra";
+            }
+            Arrays.sort(starts, 0, n);
+            int unique = 1;
+            for (int k = 1, i = 0; k < n; k++) {
+                if (compressed) {
+                    while (i < starts[k]) {
+                        i = nextInstruction(i);
+                    }
                 }
-                case 2 -> {
-                    return "sp";
+                if (starts[k] != starts[unique - 1] && (!compressed || i == starts[k])) {
+                    starts[unique++] = starts[k];
                 }
-                case 3 -> {
-                    return "gp";
+            }
+            return Arrays.copyOf(starts, textLinesCount == 0 ? 0 : unique);
+        }
+
+        /**
+         * Hash of the block's address and words and of every name its listing prints:
+         * label headers and jump targets, whose L&lt;n&gt; numbers depend on the rest of the section.
+         */
+        private byte[] fingerprint(MessageDigest digest, int from, int to) {
+            digest.update(ByteBuffer.allocate(8).putInt(textAddr + from * unit).putInt(to - from).flip());
+            digest.update(bytes.slice(textOffset + from * unit, (to - from) * unit));
+            for (int i = from; i < to; i = compressed ? nextInstruction(i) : i + 1) {
+                int addr = textAddr + i * unit;
+                String label = functionNames.get(addr);
+                if (label != null) {
+                    digest.update(ByteBuffer.allocate(4).putInt(i).flip());
+                    digest.update(label.getBytes(StandardCharsets.UTF_8));
+                    digest.update((byte) 0);
                 }
-                case 4 -> {
-                    return "tp";
+                int code = wordAt(i);
+                byte format = DecodeTable.FORMAT[isa.decode(code)];
+                if (DecodeTable.isJump(format)) {
+                    digest.update(String.valueOf(functionNames.get(addr + DecodeTable.imm(format, code)))
+                            .getBytes(StandardCharsets.UTF_8));
+                    digest.update((byte) 0);
                 }
             }
-            if (rd <= 7) {
-                return "t" + (rd - 5);
+            return digest.digest();
+        }
+
+        private static MessageDigest sha256() {
+            try {
+                return MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
             }
-            if (rd <= 9) {
-                return "s" + (rd - 8);
+        }
+
+        void write(OutputStream outputStream) throws IOException {
+            out = new ListingWriter(outputStream);
+            try {
+                withPool(this::parseElf);
+            } finally {
+                out.close();
             }
-            if (rd <= 17) {
-                return "a" + (rd - 10);
+            metrics.file(lCount, out.size());
+        }
+
+        private void addLabel(int target) {
+            if (!functionNames.containsKey(target)) {
+                functionNames.put(target, "L" + lCount);
+                lCount++;
             }
-            if (rd <= 27) {
-                return "s" + (rd - 16);
+        }
+
+        static void printLabel(ListingWriter out, int addr, String label) throws IOException {
+            out.append('\n').appendHex(addr, 8).append(" \t<").append(label).append(">:\n");
+        }
+
+        /**
+         * Prints one listing line; {@code target} is the name at the jump target of jal and branches.
+         */
+        static void printInstruction(ListingWriter out, int addr, int code, int op, int imm, String target) throws IOException {
+            out.instruction(addr, code, DecodeTable.MNEMONIC[op]);
+            printOperands(out, addr, DecodeTable.FORMAT[op], DecodeTable.rd(code), DecodeTable.rs1(code), DecodeTable.rs2(code),
+                    imm, target);
+        }
+
+        /**
+         * Prints a compressed instruction: its 16 bits, and the mnemonic and operands of its 32-bit form.
+         */
+        static void printCompressed(ListingWriter out, int addr, int half, int word, int op, int imm, String target) throws IOException {
+            out.instruction(addr, half, 2, DecodeTable.MNEMONIC[op]);
+            printOperands(out, addr, DecodeTable.FORMAT[op], DecodeTable.rd(word), DecodeTable.rs1(word), DecodeTable.rs2(word),
+                    imm, target);
+        }
+
+        /**
+         * Prints the operands of an instruction in one of the {@link DecodeTable} formats; only the registers
+         * the format has are read.
+         */
+        static void printOperands(ListingWriter out, int addr, byte format, int rd, int rs1, int rs2, int imm, String target)
+                throws IOException {
+            String[] reg = DecodeTable.REGISTERS;
+            switch (format) {
+                case DecodeTable.FMT_U -> out.append('\t').append(reg[rd]).append(", 0x").appendHex(imm);
+                case DecodeTable.FMT_J -> out.append('\t').append(reg[rd]).append(", 0x").appendHex(imm + addr)
+                        .append(" <").append(String.valueOf(target)).append('>');
+                case DecodeTable.FMT_I_MEM -> out.append('\t').append(reg[rd]).append(", ").appendDec(imm)
+                        .append('(').append(reg[rs1]).append(')');
+                case DecodeTable.FMT_S -> out.append('\t').append(reg[rs2]).append(", ").appendDec(imm)
+                        .append('(').append(reg[rs1]).append(')');
+                case DecodeTable.FMT_B -> out.append('\t').append(reg[rs1]).append(", ").append(reg[rs2])
+                        .append(", 0x").appendHex(imm + addr).append(", <").append(String.valueOf(target)).append('>');
+                case DecodeTable.FMT_I, DecodeTable.FMT_I_SHAMT, DecodeTable.FMT_I_SHAMT6 -> out.append('\t').append(reg[rd]).append(", ")
+                        .append(reg[rs1]).append(", ").appendDec(imm);
+                case DecodeTable.FMT_R -> out.append('\t').append(reg[rd]).append(", ").append(reg[rs1])
+                        .append(", ").append(reg[rs2]);
+                case DecodeTable.FMT_FENCE -> out.append('\t').append(DecodeTable.FENCE_SETS[imm & 0xf]).append(", ")
+                        .append(DecodeTable.FENCE_SETS[(imm >> 4) & 0xf]);
             }
-            return "t" + (rd - 25);
+            out.append('\n');
+        }
+
+        private InstructionStream instructions() {
+            return new InstructionStream(bytes, textOffset, textAddr, textLinesCount, functionNames, isa);
+        }
+
+        /**
+         * Position of the instruction after the one at halfword {@code i} of the selected compressed section.
+         */
+        private int nextInstruction(int i) {
+            return i + 1 < textLinesCount && !DecodeTable.isCompressed(bytes.getShort(textOffset + i * 2)) ? i + 2 : i + 1;
         }
 
-        private void AUIPC(int addr, int code, boolean needPrint) throws IOException {
-            int rd = (code & 0b111110000000) >> 7;
-            int imm = (code & 0b11111111111111111111000000000000) >> 12;
-            if (needPrint) {
-                outputStream.write(String.format("   %05x:\t%08x\t%7s\t%s, %s\n", addr, code, "auipc", rdConvert(rd), "0x" + Integer.toHexString(imm)).getBytes());
+        /**
+         * The 32-bit form of the instruction at position {@code i}.
+         */
+        private int wordAt(int i) {
+            if (!compressed) {
+                return bytes.getInt(i * 4 + textOffset);
+            }
+            int half = bytes.getShort(textOffset + i * 2) & 0xffff;
+            if (DecodeTable.isCompressed(half)) {
+                return isa.expand(half);
             }
+            return i + 1 < textLinesCount ? bytes.getInt(textOffset + i * 2) : 0;
         }
 
-        private void LUI(int addr, int code, boolean needPrint) throws IOException {
-            int rd = (code & 0b111110000000) >> 7;
-            int imm = (code & 0b11111111111111111111000000000000) >> 12;
-            if (needPrint) {
-                outputStream.write(String.format("   %05x:\t%08x\t%7s\t%s, %s\n", addr, code, "lui", rdConvert(rd), "0x" + Integer.toHexString(imm)).getBytes());
+        /**
+         * Decodes the instructions that start in the {@code count} positions at {@code from} into {@code text};
+         * returns the number of positions they take.
+         */
+        private int decode(DecodedText text, int from, int count) {
+            if (compressed) {
+                return text.decodeCompressed(bytes, textOffset + from * 2, textAddr + from * 2, count, textLinesCount - from);
             }
+            text.decode(bytes, textOffset + from * 4, textAddr + from * 4, count);
+            return count;
         }
 
-        private void JAL(int addr, int code, boolean needPrint) throws IOException {
-            int rd = (code & 0b111110000000) >> 7;
-            int imm = ((code >> 21) & 0x3ff) +
-                    (((code >> 20) & 1) << 10) +
-                    (((code >> 12) & 0xff) << 11);
-            imm = (((code >> 31) & 1) == 1 ? 0xfff00000 : 0) | (imm << 1);
-            if (needPrint) {
-                outputStream.write(String.format("   %05x:\t%08x\t%7s\t%s, 0x%x <%s>\n", addr, code, "jal", rdConvert(rd), imm + addr, functionNames.get(imm + addr)).getBytes(StandardCharsets.UTF_8));
-            } else {
-                if (!functionNames.containsKey(imm + addr)) {
-                    functionNames.put(imm + addr, "L" + lCount);
-                    lCount++;
+        /**
+         * Targets of the jal and branch instructions among positions {@code [from, to)} of .text, in address order.
+         * Only the words {@link #SCAN} marks as jal or branch are decoded.
+         */
+        private int[] collectTargets(int from, int to) {
+            if (compressed) {
+                return collectCompressedTargets(from, to);
+            }
+            int[] targets = new int[16];
+            int count = 0;
+            long[] marks = new long[OpcodeScan.BLOCK >>> 6];
+            for (int block = from; block < to; block += OpcodeScan.BLOCK) {
+                Arrays.fill(marks, 0);
+                SCAN.scan(bytes, textOffset + block * 4, Math.min(OpcodeScan.BLOCK, to - block), marks);
+                for (int k = 0; k < marks.length; k++) {
+                    for (long bits = marks[k]; bits != 0; bits &= bits - 1) {
+                        int i = block + (k << 6) + Long.numberOfTrailingZeros(bits);
+                        int code = bytes.getInt(i * 4 + textOffset);
+                        byte format = DecodeTable.FORMAT[isa.decode(code)];
+                        if (DecodeTable.isJump(format)) {
+                            if (count == targets.length) {
+                                targets = Arrays.copyOf(targets, count * 2);
+                            }
+                            targets[count++] = textAddr + i * 4 + DecodeTable.imm(format, code);
+                        }
+                    }
                 }
             }
+            return Arrays.copyOf(targets, count);
         }
 
-        private void JALR(int addr, int code, boolean needPrint) throws IOException {
-            int rd = (code & 0b111110000000) >> 7;
-            int rs1 = (code & 0b11111000000000000000) >> 15;
-            int imm = (code & 0b11111111111100000000000000000000) >> 20;
-            if (needPrint) {
-                outputStream.write(String.format("   %05x:\t%08x\t%7s\t%s, %d(%s)\n", addr, code, "jalr", rdConvert(rd), imm, rdConvert(rs1)).getBytes());
+        /**
+         * {@link #collectTargets} for a section with compressed instructions; c.j, c.jal, c.beqz and c.bnez
+         * expand to jal and branches. {@code from} must be an instruction boundary.
+         */
+        private int[] collectCompressedTargets(int from, int to) {
+            int[] targets = new int[16];
+            int count = 0;
+            for (int i = from; i < to; i = nextInstruction(i)) {
+                int code = wordAt(i);
+                byte format = DecodeTable.FORMAT[isa.decode(code)];
+                if (DecodeTable.isJump(format)) {
+                    if (count == targets.length) {
+                        targets = Arrays.copyOf(targets, count * 2);
+                    }
+                    targets[count++] = textAddr + i * 2 + DecodeTable.imm(format, code);
+                }
             }
+            return Arrays.copyOf(targets, count);
         }
 
-        private void B(int addr, int code, boolean needPrint) throws IOException {
-            int rs1 = (code & 0b11111000000000000000) >> 15;
-            int rs2 = (code & 0b1111100000000000000000000) >> 20;
-            int func = (code & 0b111000000000000) >> 12;
-            String name;
-            switch (func) {
-                case 0b000 -> name = "beq";
-                case 0b001 -> name = "bne";
-                case 0b100 -> name = "blt";
-                case 0b101 -> name = "bge";
-                case 0b110 -> name = "bltu";
-                case 0b111 -> name = "bgeu";
-                default -> {
-                    invalidInstruction(addr, code, needPrint);
-                    return;
-                }
+        /**
+         * Names every jump target that is not a symbol L0, L1, ... in address order of the jumps.
+         * In parallel mode every chunk collects its own targets, and they are merged chunk by chunk,
+         * so the numbering does not depend on the thread count.
+         */
+        void collectLabels() throws IOException {
+            try (Metrics.Timer timer = metrics.stage(Metrics.Stage.LABELS)) {
+                collectLabels(isParallel());
             }
-            int imm = (((((code >> 25) & 0b111111) << 4) & 0x3ff) +
-                    (((code >> 7) & 1) << 10) +
-                    ((code >> 8) & 0b1111)) << 1;
-            imm = (((code >> 31) & 1) == 1 ? 0xfffff000 : 0) | imm;
+        }
 
-            if (needPrint) {
-                outputStream.write(String.format("   %05x:\t%08x\t%7s\t%s, %s, 0x%x, <%s>\n", addr, code, name, rdConvert(rs1), rdConvert(rs2), imm + addr, functionNames.get(imm + addr)).getBytes()); // <...>
-            } else {
-                if (!functionNames.containsKey(imm + addr)) {
-                    functionNames.put(imm + addr, "L" + lCount);
-                    lCount++;
-                }
-            }
-        }
-
-        private void L(int addr, int code, boolean needPrint) throws IOException {
-            int rd = (code & 0b111110000000) >> 7;
-            int rs1 = (code & 0b11111000000000000000) >> 15;
-            int imm = (code & 0b11111111111100000000000000000000) >> 20;
-            int func = (code & 0b111000000000000) >> 12;
-            String name;
-            switch (func) {
-                case 0b000 -> name = "lb";
-                case 0b001 -> name = "lh";
-                case 0b010 -> name = "lw";
-                case 0b100 -> name = "lbu";
-                case 0b101 -> name = "lhu";
-                default -> {
-                    invalidInstruction(addr, code, needPrint);
-                    return;
+        private void collectLabels(boolean parallel) throws IOException {
+            if (!parallel) {
+                for (int target : collectTargets(0, textLinesCount)) {
+                    addLabel(target);
                 }
-
+                return;
             }
-            if (needPrint) {
-                outputStream.write(String.format("   %05x:\t%08x\t%7s\t%s, %d(%s)\n", addr, code, name, rdConvert(rd), imm, rdConvert(rs1)).getBytes());
+            withPool(() -> {
+                int[] starts = chunkStarts();
+                List<Callable<int[]>> tasks = new ArrayList<>();
+                for (int k = 0; k + 1 < starts.length; k++) {
+                    int start = starts[k];
+                    int end = starts[k + 1];
+                    tasks.add(() -> collectTargets(start, end));
+                }
+                for (Future<int[]> targets : pool.invokeAll(tasks)) {
+                    for (int target : await(targets)) {
+                        addLabel(target);
+                    }
+                }
+            });
+        }
+
+        private void printText(InstructionStream instructions) throws IOException {
+            for (DecodedText block = instructions.nextBlock(); block != null; block = instructions.nextBlock()) {
+                printText(out, block, 0, block.size);
             }
         }
 
-        private void S(int addr, int code, boolean needPrint) throws IOException {
-            int immLeft = (code & 0b11111110000000000000000000000000) >> 25;
-            immLeft = immLeft << 5;
-            int immRight = immLeft + ((code & 0b111110000000) >> 7);
-            int rs1 = (code & 0b11111000000000000000) >> 15;
-            int rs2 = (code & 0b1111100000000000000000000) >> 20;
-            int func = (code & 0b111000000000000) >> 12;
-            String name;
-            switch (func) {
-                case 0b000 -> name = "sb";
-                case 0b001 -> name = "sh";
-                case 0b010 -> name = "sw";
-                default -> {
-                    invalidInstruction(addr, code, needPrint);
-                    return;
+        private void printText(ListingWriter out, DecodedText text, int from, int to) throws IOException {
+            metrics.count(text, from, to);
+            for (int i = from; i < to; ++i) {
+                int addr = text.addr[i];
+                String label = functionNames.get(addr);
+                if (label != null) {
+                    printLabel(out, addr, label);
+                }
+                int op = text.op[i];
+                int imm = text.imm[i];
+                String target = DecodeTable.isJump(DecodeTable.FORMAT[op]) ? functionNames.get(addr + imm) : null;
+                if (text.compressed && text.length[i] == 2) {
+                    printCompressed(out, addr, text.code[i], isa.expand(text.code[i]), op, imm, target);
+                } else {
+                    printInstruction(out, addr, text.code[i], op, imm, target);
                 }
-            }
-            if (needPrint) {
-                outputStream.write(String.format("   %05x:\t%08x\t%7s\t%s, %d(%s)\n", addr, code, name, rdConvert(rs2), immRight, rdConvert(rs1)).getBytes());
             }
         }
 
-        private void ADDI_SRAI(int addr, int code, boolean needPrint) throws IOException {
-            int rd = (code & 0b111110000000) >> 7;
-            int rs1 = (code & 0b11111000000000000000) >> 15;
-            int func = (code & 0b111000000000000) >> 12;
-            int imm = (code & 0b11111111111100000000000000000000) >> 20;
-            int shamt = (code & 0b1111100000000000000000000) >> 20;
-            int funct7 = (code & 0b11111110000000000000000000000000) >> 25;
-            if (needPrint) {
-                switch (func) {
-                    case 0b0 -> {
-                        //ADDI
-                        outputStream.write(String.format("   %05x:\t%08x\t%7s\t%s, %s, %s\n", addr, code, "addi", rdConvert(rd), rdConvert(rs1), imm).getBytes());
-                        return;
-                    }
+        private boolean isParallel() {
+            return threads > 1 && textLinesCount > MIN_CHUNK;
+        }
 
-                    case 0b010 -> {
-                        //SLTI
-                        outputStream.write(String.format("   %05x:\t%08x\t%7s\t%s, %s, %s\n", addr, code, "slti", rdConvert(rd), rdConvert(rs1), shamt).getBytes());
+        private int chunkSize() {
+            return Math.max(MIN_CHUNK, textLinesCount / (threads * 4));
+        }
 
-                        return;
+        /**
+         * Positions where the parallel chunks start, followed by {@code textLinesCount}. Chunks are
+         * {@link #chunkSize} positions long; with compressed instructions each one starts at the first
+         * instruction boundary at or after that.
+         */
+        private int[] chunkStarts() {
+            int chunk = chunkSize();
+            int n = (textLinesCount + chunk - 1) / chunk;
+            int[] starts = new int[n + 1];
+            for (int k = 0, i = 0; k < n; k++) {
+                if (compressed) {
+                    while (i < k * chunk) {
+                        i = nextInstruction(i);
                     }
+                    starts[k] = i;
+                } else {
+                    starts[k] = k * chunk;
+                }
+            }
+            starts[n] = textLinesCount;
+            return starts;
+        }
 
-                    case 0b011 -> {
-                        //SLTIU
-                        outputStream.write(String.format("   %05x:\t%08x\t%7s\t%s, %s, %s\n", addr, code, "sltiu", rdConvert(rd), rdConvert(rs1), shamt).getBytes());
+        /**
+         * Decodes and prints chunks into in-memory buffers on the pool and writes them out in address order.
+         */
+        private void printTextParallel() throws IOException {
+            int[] starts = chunkStarts();
+            printInOrder(starts.length - 1, k -> {
+                int start = starts[k];
+                int count = starts[k + 1] - start;
+                return () -> {
+                    DecodedText text = new DecodedText(count, isa);
+                    decode(text, start, count);
+                    ListingWriter buffer = new ListingWriter();
+                    printText(buffer, text, 0, text.size);
+                    return buffer;
+                };
+            });
+        }
 
-                        return;
+        /**
+         * Runs the {@code count} tasks made by {@code task} on the pool and writes the buffers they print
+         * to {@link #out} in task order. At most {@code 2 * threads} buffers are held at a time.
+         */
+        private void printInOrder(int count, IntFunction<Callable<ListingWriter>> task) throws IOException {
+            withPool(() -> {
+                int window = threads * 2;
+                for (int first = 0; first < count; first += window) {
+                    List<Callable<ListingWriter>> tasks = new ArrayList<>();
+                    for (int k = first; k < Math.min(count, first + window); k++) {
+                        tasks.add(task.apply(k));
                     }
-
-                    case 0b100 -> {
-                        //XORI
-                        outputStream.write(String.format("   %05x:\t%08x\t%7s\t%s, %s, %s\n", addr, code, "xori", rdConvert(rd), rdConvert(rs1), imm).getBytes());
-
-                        return;
+                    for (Future<ListingWriter> result : pool.invokeAll(tasks)) {
+                        ListingWriter buffer = await(result);
+                        buffer.writeTo(out);
+                        buffer.close();
                     }
-                    case 0b110 -> {
-                        //ORI
-                        outputStream.write(String.format("   %05x:\t%08x\t%7s\t%s, %s, %s\n", addr, code, "ori", rdConvert(rd), rdConvert(rs1), imm).getBytes());
+                }
+            });
+        }
 
-                        return;
-                    }
-                    case 0b111 -> {
-                        //ANDI
-                        outputStream.write(String.format("   %05x:\t%08x\t%7s\t%s, %s, %s\n", addr, code, "andi", rdConvert(rd), rdConvert(rs1), imm).getBytes());
+        private interface Step {
+            void run() throws IOException;
+        }
 
-                        return;
-                    }
-                }
+        /**
+         * Runs {@code step} with {@link #pool} made, so that all parallel stages of a run share one pool
+         * of {@code threads} workers. Unless the settings share a pool, the outermost call makes the pool
+         * and shuts it down; with one thread there is none.
+         */
+        private void withPool(Step step) throws IOException {
+            if (pool != null || threads == 1) {
+                step.run();
+                return;
+            }
+            pool = new ForkJoinPool(threads);
+            try {
+                step.run();
+            } finally {
+                pool.shutdown();
+                pool = null;
+            }
+        }
 
+        private static <T> T await(Future<T> future) throws IOException {
+            try {
+                return future.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("interrupted", e);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException io) {
+                    throw io;
+                }
+                throw new IllegalStateException(e.getCause());
+            }
+        }
 
-                if (funct7 == 0 && func == 0b001) {
-                    //SLLI
-                    outputStream.write(String.format("   %05x:\t%08x\t%7s\t%s, %s, %s\n", addr, code, "slli", rdConvert(rd), rdConvert(rs1), shamt).getBytes());
+        /**
+         * Names the FUNC symbols, which must be done before {@link #collectLabels()}.
+         */
+        void parseSymTab() {
+            try (Metrics.Timer timer = metrics.stage(Metrics.Stage.SYMTAB)) {
+                SymbolCache.Entry cached = symbols == null ? null : symbols.get(symbolKey);
+                if (cached != null) {
+                    functionNames = cached.names().copy();
+                    functionStarts = cached.starts();
+                    functionCount = cached.starts().length;
                     return;
                 }
-                if (funct7 == 0 && (func == (0b101))) {
-                    //SRLI
-                    outputStream.write(String.format("   %05x:\t%08x\t%7s\t%s, %s, %s\n", addr, code, "srli", rdConvert(rd), rdConvert(rs1), shamt).getBytes());
-                    return;
+                SymbolTable table = symbolTable();
+                for (int i = 0; i < table.count; ++i) {
+                    if (table.type(i) == SymbolTable.STT_FUNC) {
+                        int varValue = (int) table.value[i];
+                        functionNames.put(varValue, table.name(i));
+                        if (functionCount == functionStarts.length) {
+                            functionStarts = Arrays.copyOf(functionStarts, functionCount * 2);
+                        }
+                        functionStarts[functionCount++] = varValue;
+                    }
                 }
-                if (funct7 == 0b0100000 && func == 0b101) {
-                    //SRAI
-                    outputStream.write(String.format("   %05x:\t%08x\t%7s\t%s, %s, %s\n", addr, code, "srai", rdConvert(rd), rdConvert(rs1), shamt).getBytes());
-                    return;
+                if (symbols != null) {
+                    symbols.put(symbolKey, new SymbolCache.Entry(functionNames.copy(), Arrays.copyOf(functionStarts, functionCount)));
                 }
             }
-            invalidInstruction(addr, code, needPrint);
         }
 
-        private void ADD_AND(int addr, int code, boolean needPrint) throws IOException {
-            int rd = (code & 0b111110000000) >> 7;
-            int rs1 = (code & 0b11111000000000000000) >> 15;
-            int func = (code & 0b111000000000000) >> 12;
-            int rs2 = (code & 0b1111100000000000000000000) >> 20;
-            int funct7 = (code & 0b11111110000000000000000000000000) >> 25;
-            String name = "invalid_instruction";
-            if (funct7 == 0b0 && func == 0b0) {
-                //ADD
-                name = "add";
+        /**
+         * The symbol table, read on first use and then shared by the symbol index and the .symtab listing.
+         */
+        private SymbolTable symbolTable() {
+            if (symbolTable == null) {
+                symbolTable = new SymbolTable(bytes, layout, symtabOffset, symtabSize / symtabLineSize, strTabOffset, strtabSize);
             }
-            if (funct7 == 0b0100000 && func == 0b0) {
-                //SUB
-                name = "sub";
-            }
-            if (funct7 == 0b0 && func == 0b1) {
-                //SLL
-                name = "sll";
-            }
-            if (funct7 == 0b0 && func == 0b010) {
-                //SLT
-                name = "slt";
+            return symbolTable;
+        }
+
+        /**
+         * Prints .symtab; with several threads the rows are printed in chunks of {@link #SYMTAB_CHUNK}
+         * into in-memory buffers and written out in index order.
+         */
+        private void printSymTab() throws IOException {
+            out.append("Symbol Value              Size Type     Bind     Vis       Index Name\n");
+            SymbolTable table = symbolTable();
+            if (threads == 1 || table.count <= SYMTAB_CHUNK) {
+                table.print(out, 0, table.count);
+                return;
             }
-            if (funct7 == 0b0 && func == 0b011) {
-                //SLTU
-                name = "sltu";
+            printInOrder((table.count + SYMTAB_CHUNK - 1) / SYMTAB_CHUNK, k -> {
+                int start = k * SYMTAB_CHUNK;
+                int end = Math.min(table.count, start + SYMTAB_CHUNK);
+                return () -> {
+                    ListingWriter buffer = new ListingWriter();
+                    table.print(buffer, start, end);
+                    return buffer;
+                };
+            });
+        }
+
+        private void parseSections() {
+            int symtab = sections.find(".symtab");
+            if (symtab >= 0) {
+                symtabOffset = sections.offset[symtab];
+                symtabSize = sections.fileSize(symtab);
             }
-            if (funct7 == 0b0 && func == 0b100) {
-                //XOR
-                name = "xor";
+            int strtab = sections.find(".strtab");
+            if (strtab >= 0) {
+                strTabOffset = sections.offset[strtab];
+                strtabSize = sections.fileSize(strtab);
             }
-            if (funct7 == 0b0 && func == 0b101) {
-                //SRL
-                name = "srl";
+            symtabLineSize = layout.symbolEntrySize();
+            checkSymbols();
+            selectText(sections.find(".text"));
+        }
+
+        /**
+         * Reports a symbol table that does not end with a whole entry, whose last bytes are then ignored,
+         * and symbols whose names are not in .strtab, which are listed without a name.
+         * Only the name offsets are read: the {@link SymbolTable} is built later, and not at all when the
+         * symbol index or the listing comes from a cache.
+         */
+        private void checkSymbols() {
+            if (symtabSize % symtabLineSize != 0) {
+                diagnostics.add(new ElfDiagnostic(ElfDiagnostic.Kind.SYMBOL_TABLE, symtabOffset, "symbol table size 0x"
+                        + Integer.toHexString(symtabSize) + " is not a multiple of " + symtabLineSize));
             }
-            if (funct7 == 0b0100000 && func == 0b101) {
-                //SRA
-                name = "sra";
+            int varCount = symtabSize / symtabLineSize;
+            int badNames = 0;
+            for (int i = 0; i < varCount; ++i) {
+                int name = layout.symbolName(bytes, symtabOffset + i * symtabLineSize);
+                if (name != 0 && Integer.compareUnsigned(name, strtabSize) >= 0) {
+                    badNames++;
+                }
             }
-            if (funct7 == 0b0 && func == 0b110) {
-                //OR
-                name = "or";
+            if (badNames > 0) {
+                diagnostics.add(new ElfDiagnostic(ElfDiagnostic.Kind.SYMBOL_NAMES, symtabOffset,
+                        badNames + " of " + varCount + " symbol names are outside .strtab"));
             }
-            if (funct7 == 0 && func == 0b111) {
-                //AND
-                name = "and";
+        }
+
+        /**
+         * Makes section {@code index} the one the text methods decode; -1 selects an empty section.
+         */
+        private void selectText(int index) {
+            textOffset = index < 0 ? 0 : sections.offset[index];
+            textSize = index < 0 ? 0 : sections.fileSize(index);
+            textAddr = index < 0 ? 0 : sections.addr[index];
+            textLinesCount = textSize / unit;
+        }
+
+        public void parseElf() throws IOException {
+            if (graph != null) {
+                printGraphs();
+                return;
             }
-            if (funct7 == 1 && func == 0) {
-                name = "mul";
+            if (xref) {
+                printXref();
+                return;
             }
-            if (funct7 == 1 && func == 1) {
-                name = "mulh";
+            if (range) {
+                printRange();
+                return;
             }
-            if (funct7 == 1 && func == 0b10) {
-                name = "mulhsu";
+            int[] texts = allSections ? sections.executable() : new int[]{sections.find(".text")};
+            part(textKey(texts), () -> printTexts(texts));
+            out.append("\n\n.symtab\n\n");
+            part(symtabKey(), () -> {
+                try (Metrics.Timer timer = metrics.stage(Metrics.Stage.PRINT)) {
+                    printSymTab();
+                }
+            });
+        }
+
+        /**
+         * Prints only the selected slice: its jump targets are the only labels collected and its words
+         * the only ones decoded.
+         */
+        private void printRange() throws IOException {
+            int section = selectRange();
+            parseSymTab();
+            collectLabels();
+            out.append(allSections && section >= 0 ? sections.name(section) : ".text").append('\n');
+            try (Metrics.Timer timer = metrics.stage(Metrics.Stage.PRINT)) {
+                printText(instructions());
             }
-            if (funct7 == 1 && func == 0b11) {
-                name = "mulhu";
+        }
+
+        /**
+         * Prints the control-flow graph of the range or symbol from the settings, or else of every
+         * section that would be listed; JSON graphs are wrapped in one {@code {"sections": [...]}} object.
+         */
+        private void printGraphs() throws IOException {
+            List<ControlFlowGraph> graphs = new ArrayList<>();
+            if (range) {
+                int section = selectRange();
+                parseSymTab();
+                graphs.add(buildGraph(section >= 0 ? sections.name(section) : ".text"));
+            } else {
+                parseSymTab();
+                for (int section : allSections ? sections.executable() : new int[]{sections.find(".text")}) {
+                    selectText(section);
+                    graphs.add(buildGraph(section >= 0 ? sections.name(section) : ".text"));
+                }
             }
-            if (funct7 == 1 && func == 0b100) {
-                name = "div";
+            try (Metrics.Timer timer = metrics.stage(Metrics.Stage.PRINT)) {
+                if (graph == ControlFlowGraph.Format.DOT) {
+                    for (ControlFlowGraph g : graphs) {
+                        g.printDot(out);
+                    }
+                    return;
+                }
+                out.append("{\"sections\": [");
+                for (int i = 0; i < graphs.size(); i++) {
+                    out.append(i == 0 ? "\n" : ",\n");
+                    graphs.get(i).printJson(out);
+                }
+                out.append("]}\n");
             }
-            if (funct7 == 1 && func == 0b101) {
-                name = "divu";
+        }
+
+        /**
+         * Splits the selected section into basic blocks: the FUNC symbols, jump and branch targets and
+         * the instructions after branches and jumps start blocks, then every instruction is added in order.
+         */
+        private ControlFlowGraph buildGraph(String name) {
+            try (Metrics.Timer timer = metrics.stage(Metrics.Stage.LABELS)) {
+                ControlFlowGraph.Builder builder = new ControlFlowGraph.Builder(name, textAddr, unit, textLinesCount);
+                for (int f = 0; f < functionCount; f++) {
+                    builder.function(positionOf(functionStarts[f]), functionNames.get(functionStarts[f]));
+                }
+                for (int i = 0; i < textLinesCount; i = compressed ? nextInstruction(i) : i + 1) {
+                    int code = wordAt(i);
+                    int op = isa.decode(code);
+                    if (DecodeTable.isJump(DecodeTable.FORMAT[op])) {
+                        builder.leader(positionOf(textAddr + i * unit + DecodeTable.imm(DecodeTable.FORMAT[op], code)));
+                    }
+                    if (ControlFlowGraph.endsBlock(ControlFlowGraph.kind(op, code))) {
+                        builder.leader(compressed ? nextInstruction(i) : i + 1);
+                    }
+                }
+                for (int i = 0; i < textLinesCount; i = compressed ? nextInstruction(i) : i + 1) {
+                    int code = wordAt(i);
+                    int op = isa.decode(code);
+                    int target = DecodeTable.isJump(DecodeTable.FORMAT[op])
+                            ? positionOf(textAddr + i * unit + DecodeTable.imm(DecodeTable.FORMAT[op], code)) : -1;
+                    builder.instruction(i, ControlFlowGraph.kind(op, code), target);
+                }
+                return builder.build();
             }
-            if (funct7 == 1 && func == 0b110) {
-                name = "rem";
+        }
+
+        /**
+         * Prints the cross-reference index of the range or symbol from the settings, or else of every section
+         * that would be listed. Labels are collected in all of them before any is scanned.
+         */
+        private void printXref() throws IOException {
+            CrossReference.Builder builder = new CrossReference.Builder();
+            SymbolTable table = symbolTable();
+            for (int i = 0; i < table.count; ++i) {
+                int varType = table.type(i);
+                String varName = varType == SymbolTable.STT_FUNC || varType == SymbolTable.STT_OBJECT ? table.name(i) : "";
+                if (!varName.isEmpty()) {
+                    builder.symbol((int) table.value[i], (int) table.size[i],
+                            varType == SymbolTable.STT_FUNC ? CrossReference.FUNC : CrossReference.OBJECT, varName);
+                } else if (nameEquals(table.nameOffset[i], "__global_pointer$")) {
+                    builder.globalPointer((int) table.value[i]);
+                }
             }
-            if (funct7 == 1 && func == 0b111) {
-                name = "remu";
+            if (range) {
+                selectRange();
+                parseSymTab();
+                collectLabels();
+                scanReferences(builder);
+            } else {
+                parseSymTab();
+                int[] texts = allSections ? sections.executable() : new int[]{sections.find(".text")};
+                for (int section : texts) {
+                    selectText(section);
+                    collectLabels();
+                }
+                for (int section : texts) {
+                    selectText(section);
+                    scanReferences(builder);
+                }
             }
-            if (name.equals("invalid_instruction")) {
-                invalidInstruction(addr, code, needPrint);
-                return;
+            int[] starts = Arrays.copyOf(functionStarts, functionCount);
+            Arrays.sort(starts);
+            for (int i = 0; i < functionNames.size(); i++) {
+                int addr = functionNames.keyAt(i);
+                if (Arrays.binarySearch(starts, addr) < 0) {
+                    builder.symbol(addr, 0, CrossReference.LABEL, functionNames.valueAt(i));
+                }
             }
-            if (needPrint) {
-                outputStream.write(String.format("   %05x:\t%08x\t%7s\t%s, %s, %s\n", addr, code, name, rdConvert(rd), rdConvert(rs1), rdConvert(rs2)).getBytes());
+            CrossReference index = builder.build();
+            try (Metrics.Timer timer = metrics.stage(Metrics.Stage.PRINT)) {
+                if (!index.print(out, xrefQuery) && xrefQuery != null) {
+                    throw new IllegalArgumentException("symbol not found: " + xrefQuery);
+                }
             }
         }
 
-        private String getCharString(int elem) {
-            StringBuilder ans = new StringBuilder();
-            if ((elem & 0b1000) != 0) {
-                ans.append("i");
+        /**
+         * Adds the references of every instruction of the selected section; register values are not
+         * carried over labels and function starts.
+         */
+        private void scanReferences(CrossReference.Builder builder) {
+            try (Metrics.Timer timer = metrics.stage(Metrics.Stage.LABELS)) {
+                for (int i = 0; i < textLinesCount; i = compressed ? nextInstruction(i) : i + 1) {
+                    int addr = textAddr + i * unit;
+                    if (functionNames.containsKey(addr)) {
+                        builder.boundary();
+                    }
+                    int code = wordAt(i);
+                    builder.instruction(addr, isa.decode(code), code);
+                }
             }
-            if ((elem & 0b100) != 0) {
-                ans.append("o");
+        }
+
+        /**
+         * Position of {@code address} in the selected section, or -1 if it is outside it or between positions.
+         */
+        private int positionOf(int address) {
+            long offset = Integer.toUnsignedLong(address) - Integer.toUnsignedLong(textAddr);
+            return offset < 0 || offset >= (long) textLinesCount * unit || offset % unit != 0 ? -1 : (int) (offset / unit);
+        }
+
+        /**
+         * Selects the section holding the range or symbol from the settings and narrows the text fields
+         * to the words inside it; returns the section index, or -1 if no section holds it.
+         */
+        int selectRange() {
+            int from = rangeStart;
+            int to = rangeEnd;
+            if (symbol != null) {
+                int[] function = findFunction(symbol);
+                if (function == null) {
+                    throw new IllegalArgumentException("symbol not found: " + symbol);
+                }
+                from = function[0];
+                to = function[1];
             }
-            if ((elem & 0b10) != 0) {
-                ans.append("r");
+            int section = -1;
+            if (allSections) {
+                for (int i : sections.executable()) {
+                    if (Integer.compareUnsigned(from - sections.addr[i], sections.size[i]) < 0) {
+                        section = i;
+                        break;
+                    }
+                }
+            } else {
+                section = sections.find(".text");
             }
-            if ((elem & 0b1) != 0) {
-                ans.append("w");
+            selectText(section);
+            long start = Integer.toUnsignedLong(from) - Integer.toUnsignedLong(textAddr);
+            long end = Integer.toUnsignedLong(to) - Integer.toUnsignedLong(textAddr);
+            int first = (int) Math.min(Math.max(0, Math.floorDiv(start + unit - 1, unit)), textLinesCount);
+            int last = (int) Math.min(Math.max(first, Math.floorDiv(end + unit - 1, unit)), textLinesCount);
+            if (compressed) {
+                // move both ends to instruction boundaries, found by walking from the section start
+                int i = 0;
+                while (i < first) {
+                    i = nextInstruction(i);
+                }
+                first = i;
+                while (i < last) {
+                    i = nextInstruction(i);
+                }
+                last = Math.max(first, i);
             }
-            return ans.toString();
+            textOffset += first * unit;
+            textAddr += first * unit;
+            textLinesCount = last - first;
+            textSize = textLinesCount * unit;
+            return section;
         }
 
-        private void FENCE_PAUSE(int addr, int code, boolean needPrint) throws IOException {
-            String name = "fence";
-            if (code == 0b10000011001100000000000000001111) {
-                name = "fence.tso";
+        /**
+         * {start, end} addresses of the FUNC symbol called {@code name}, or null. Names are compared in place.
+         * A symbol of size 0 ends at the next FUNC symbol, or at the end of its section if there is none.
+         */
+        private int[] findFunction(String name) {
+            SymbolTable table = symbolTable();
+            int[] function = null;
+            for (int i = 0; i < table.count && function == null; ++i) {
+                if (table.type(i) == SymbolTable.STT_FUNC && nameEquals(table.nameOffset[i], name)) {
+                    int value = (int) table.value[i];
+                    function = new int[]{value, value + (int) table.size[i]};
+                }
             }
-            if (code == 0b00000001000000000000000000001111) {
-                name = "pause";
+            if (function == null || function[0] != function[1]) {
+                return function;
             }
-            int successor = (code & 0b111100000000000000000000) >> 20;
-            int predecessor = (code & 0b1111000000000000000000000000) >> 24;
-            String successorString = getCharString(successor);
-            String predecessorString = getCharString(predecessor);
-
-            if (needPrint) {
-                outputStream.write(String.format("   %05x:\t%08x\t%7s\t%s, %s\n", addr, code, name, successorString, predecessorString).getBytes());
+            int section = sections.findByAddress(function[0]);
+            long end = section < 0 ? Integer.toUnsignedLong(function[0])
+                    : Integer.toUnsignedLong(sections.addr[section]) + Integer.toUnsignedLong(sections.size[section]);
+            for (int i = 0; i < table.count; ++i) {
+                long value = Integer.toUnsignedLong((int) table.value[i]);
+                if (table.type(i) == SymbolTable.STT_FUNC && value > Integer.toUnsignedLong(function[0]) && value < end) {
+                    end = value;
+                }
             }
+            function[1] = (int) end;
+            return function;
         }
 
-        private void ECALL_BREAK(int addr, int code, boolean needPrint) throws IOException {
-            if (needPrint) {
-                if (code == 0b00000000000000000000000001110011) {
-                    outputStream.write(String.format("   %05x:\t%08x\t%7s\n", addr, code, "ecall").getBytes());
-                } else {
-                    outputStream.write(String.format("   %05x:\t%08x\t%7s\n", addr, code, "ebreak").getBytes());
+        private boolean nameEquals(int offset, String name) {
+            if (Integer.compareUnsigned(offset, strtabSize) >= 0 || name.length() >= strtabSize - offset) {
+                return false;
+            }
+            int start = strTabOffset + offset;
+            for (int k = 0; k < name.length(); k++) {
+                if ((bytes.get(start + k) & 0xff) != name.charAt(k)) {
+                    return false;
                 }
             }
+            return bytes.get(start + name.length()) == 0;
         }
 
-        private void invalidInstruction(int addr, int code, boolean needPrint) throws IOException {
-            if (needPrint) {
-                outputStream.write(String.format("   %05x:\t%08x\t%-7s\n", addr, code, "invalid_instruction").getBytes());
-            }
+        private interface Part {
+            void print() throws IOException;
         }
 
-        private void parseText(boolean needPrint) throws IOException {
-            for (int i = 0; i < textLinesCount; ++i) {
-                int code = bytesToInt(i * 4 + textOffset, 4);
-                int addr = textAddr + i * 4;
-                if (needPrint && functionNames.containsKey(addr)) {
-                    outputStream.write(String.format("\n%08x \t<%s>:\n", addr, functionNames.get(addr)).getBytes());
-                }
-                switch (code & 0b1111111) {
-                    case 0b0110111 -> LUI(addr, code, needPrint);
-                    case 0b0010111 -> AUIPC(addr, code, needPrint);
-                    case 0b1101111 -> JAL(addr, code, needPrint);
-                    case 0b1100111 -> JALR(addr, code, needPrint);
-                    case 0b1100011 -> B(addr, code, needPrint);
-                    case 0b0000011 -> L(addr, code, needPrint);
-                    case 0b0100011 -> S(addr, code, needPrint);
-                    case 0b0010011 -> ADDI_SRAI(addr, code, needPrint);
-                    case 0b0110011 -> ADD_AND(addr, code, needPrint);
-                    case 0b0001111 -> FENCE_PAUSE(addr, code, needPrint);
-                    case 0b1110011 -> ECALL_BREAK(addr, code, needPrint);
-                    default -> invalidInstruction(addr, code, needPrint);
-                }
+        /**
+         * Prints a part of the listing, or copies it from the cache when its key is known there.
+         */
+        private void part(String key, Part part) throws IOException {
+            if (cache == null) {
+                part.print();
+                return;
             }
+            cache.write(key, out, writer -> {
+                ListingWriter target = out;
+                out = writer;
+                try {
+                    part.print();
+                } finally {
+                    out = target;
+                }
+            });
         }
 
-        private void parseSymTab(boolean needPrint) throws IOException {
-            if (needPrint) {
-                outputStream.write("Symbol Value              Size Type     Bind     Vis       Index Name\n".getBytes());
+        private String textKey(int[] texts) {
+            if (cache == null) {
+                return null;
             }
-            int varCount = symtabSize / symtabLineSize;
-            for (int i = 0; i < varCount; ++i) {
-                // parse name
-                int now = symtabOffset + i * symtabLineSize;
-                int offsetInStrTab = bytesToInt(now, 4);
-                String varName = bytestoString(strTabOffset + offsetInStrTab);
-                int varValue = bytesToInt(now + 4, 4);
-                int varSize = bytesToInt(now + 8, 4);
-                int varInfo = bytesToInt(now + 12, 1);
-                int varOther = bytesToInt(now + 13, 1);
-                int varShndx = bytesToInt(now + 14, 2);
-                String varIndex = INDEX.get(varShndx);
-                if (varIndex == null) {
-                    varIndex = String.valueOf(varShndx);
-                }
-                String varBind = BIND.get((varInfo) >> 4);
-                String varType = TYPE.get((varInfo) & 0xf);
-                String varVisibility = VISIBILITY.get((varOther) & 0x3);
-                if (needPrint) {
-                    outputStream.write(String.format("[%4d] 0x%-15X %5d %-8s %-8s %-8s %6s %s\n", i, varValue, varSize, varType, varBind, varVisibility, varIndex, varName).getBytes());
-                } else {
-                    if (Objects.equals(varType, "FUNC")) {
-                        functionNames.put(varValue, varName);
-                    }
-                }
+            DisassemblyCache.Key key = key("text");
+            for (int section : texts) {
+                selectText(section);
+                key.add(allSections ? sections.name(section) : ".text").add(textAddr).add(bytes, textOffset, textSize);
             }
+            return key.add(bytes, symtabOffset, symtabSize).add(bytes, strTabOffset, strtabSize).build();
         }
 
-        public void parseElf() throws IOException {
-            TYPE.put(0, "NOTYPE");
-            TYPE.put(1, "OBJECT");
-            TYPE.put(2, "FUNC");
-            TYPE.put(3, "SECTION");
-            TYPE.put(4, "FILE");
-            TYPE.put(5, "COMMON");
-            TYPE.put(6, "TLS");
-            TYPE.put(10, "LOOS");
-            TYPE.put(12, "HIOS");
-            TYPE.put(13, "LOPROC");
-            TYPE.put(15, "HIPROC");
-            sectionHeadderOffset = bytesToInt(32, 4);
-            sectionNameIndexInSectionHeadder = bytesToInt(50, 2);
-            int now = sectionHeadderOffset;
-            sectionNameOffset = bytesToInt(sectionHeadderOffset + sectionHeadderSize * sectionNameIndexInSectionHeadder + 16, 4);
-            sectionHeadersCount = bytesToInt(48, 2);
-            while (sectionHeadersCount-- > 0) {
-                int shname = (bytesToInt(now, 4));
-                String sectionName = bytestoString(shname + sectionNameOffset);
-                if (sectionName.equals(".symtab")) {
-                    symtabOffset = bytesToInt(now + 16, 4);
-                    symtabSize = bytesToInt(now + 20, 4);
-                }
-                if (sectionName.equals(".strtab")) {
-                    strTabOffset = bytesToInt(now + 16, 4);
-                    strtabSize = bytesToInt(now + 20, 4);
-                }
-                if (sectionName.equals(".text")) {
-                    textOffset = bytesToInt(now + 16, 4);
-                    textSize = bytesToInt(now + 20, 4);
-                    textAddr = bytesToInt(now + 12, 4);
-
-                }
-                now += sectionHeadderSize;
-            }
-            symtabLineSize = 16;
-            textLinesCount = textSize / 4;
-            parseSymTab(false);
-            parseText(false);
-            outputStream.write(".text\n".getBytes());
-            parseText(true);
-            outputStream.write("\n\n.symtab\n\n".getBytes());
-            parseSymTab(true);
+        private String symtabKey() {
+            if (cache == null) {
+                return null;
+            }
+            // names are read up to their terminator, so the whole string table is part of the key
+            return key("symtab").add(bytes, symtabOffset, symtabSize).add(bytes, strTabOffset, strtabSize).build();
+        }
 
+        /**
+         * A cache key of the given kind that starts with what decides how the bytes are read: the ELF class,
+         * the symbol entry size and whether compressed instructions are decoded, by the header flag or by setting.
+         */
+        private DisassemblyCache.Key key(String kind) {
+            return new DisassemblyCache.Key(kind).add(isa.rv64 ? "rv64" : "rv32").add(isa.compressed ? "c" : "")
+                    .add(symtabLineSize);
+        }
+
+        private void printTexts(int[] texts) throws IOException {
+            parseSymTab();
+            for (int section : texts) {
+                selectText(section);
+                collectLabels();
+            }
+            try (Metrics.Timer timer = metrics.stage(Metrics.Stage.PRINT)) {
+                for (int k = 0; k < texts.length; k++) {
+                    selectText(texts[k]);
+                    if (k > 0) {
+                        out.append("\n\n");
+                    }
+                    out.append(allSections ? sections.name(texts[k]) : ".text").append('\n');
+                    if (isParallel()) {
+                        printTextParallel();
+                    } else {
+                        printText(instructions());
+                    }
+                }
+            }
         }
     }
 }
@@ -0,0 +1,130 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+
+/**
+ * Where each function block of a .text listing is in the output file, with a fingerprint of
+ * everything the block's text depends on. Kept next to the listing as {@code <output>.idx},
+ * so that the next run can copy unchanged blocks instead of disassembling them again.
+ */
+final class IncrementalIndex {
+    private static final int MAGIC = 0x52564449;
+    private static final int VERSION = 2;
+    static final int DIGEST_SIZE = 32;
+    // magic, version, output size and count; then start, words, offset, length and digest per block
+    private static final int HEADER_SIZE = 20;
+    private static final int ENTRY_SIZE = 20 + DIGEST_SIZE;
+
+    int count;
+    int[] start;
+    int[] words;
+    long[] offset;
+    int[] length;
+    byte[] digests;
+    long outputSize;
+
+    IncrementalIndex(int capacity) {
+        start = new int[capacity];
+        words = new int[capacity];
+        offset = new long[capacity];
+        length = new int[capacity];
+        digests = new byte[capacity * DIGEST_SIZE];
+    }
+
+    void add(int blockStart, int blockWords, long blockOffset, int blockLength, byte[] digest) {
+        start[count] = blockStart;
+        words[count] = blockWords;
+        offset[count] = blockOffset;
+        length[count] = blockLength;
+        System.arraycopy(digest, 0, digests, count * DIGEST_SIZE, DIGEST_SIZE);
+        count++;
+    }
+
+    /**
+     * Block with the same start, size and fingerprint, or -1. Blocks are kept in address order.
+     */
+    int find(int blockStart, int blockWords, byte[] digest) {
+        int lo = 0;
+        int hi = count - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int cmp = Integer.compareUnsigned(start[mid], blockStart);
+            if (cmp == 0) {
+                boolean same = words[mid] == blockWords && Arrays.equals(digests, mid * DIGEST_SIZE,
+                        (mid + 1) * DIGEST_SIZE, digest, 0, DIGEST_SIZE);
+                return same ? mid : -1;
+            }
+            if (cmp < 0) {
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return -1;
+    }
+
+    void write(Path file) throws IOException {
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(outputSize);
+            out.writeInt(count);
+            for (int i = 0; i < count; i++) {
+                out.writeInt(start[i]);
+                out.writeInt(words[i]);
+                out.writeLong(offset[i]);
+                out.writeInt(length[i]);
+                out.write(digests, i * DIGEST_SIZE, DIGEST_SIZE);
+            }
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Reads the index of {@code output}; null when there is none, when it does not match the file,
+     * or when it is corrupt, e.g. its block count does not fit the index file.
+     */
+    static IncrementalIndex read(Path file, Path output) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return null;
+            }
+            long outputSize = in.readLong();
+            if (!Files.exists(output) || Files.size(output) != outputSize) {
+                return null;
+            }
+            int count = in.readInt();
+            if (count < 0 || count > (Files.size(file) - HEADER_SIZE) / ENTRY_SIZE) {
+                return null;
+            }
+            IncrementalIndex index = new IncrementalIndex(count);
+            byte[] digest = new byte[DIGEST_SIZE];
+            for (int i = 0; i < count; i++) {
+                int blockStart = in.readInt();
+                int blockWords = in.readInt();
+                long blockOffset = in.readLong();
+                int blockLength = in.readInt();
+                in.readFully(digest);
+                if (blockOffset < 0 || blockLength < 0 || blockOffset + blockLength > outputSize) {
+                    return null;
+                }
+                index.add(blockStart, blockWords, blockOffset, blockLength, digest);
+            }
+            index.outputSize = outputSize;
+            return index;
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            // a truncated or unreadable index only means a full run
+            return null;
+        }
+    }
+}
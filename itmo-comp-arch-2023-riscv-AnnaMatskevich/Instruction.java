@@ -0,0 +1,13 @@
+/**
+ * One decoded instruction, as returned by {@link InstructionStream}.
+ * {@code length} is 2 for a compressed instruction, whose {@code code} is its 16 bits, and 4 otherwise.
+ * {@code op} is the instruction id, see {@link #mnemonic()}; a compressed instruction has the id of its 32-bit form. Register fields the instruction
+ * does not have are -1. For jal and branches {@code imm} is the offset to the target.
+ * {@code label} is the symbol or L&lt;n&gt; label at {@code address}, and {@code target}
+ * is the one at the jump target; both are null when there is none.
+ */
+public record Instruction(int address, int code, int length, int op, int rd, int rs1, int rs2, int imm, String label, String target) {
+    public String mnemonic() {
+        return DecodeTable.MNEMONIC[op];
+    }
+}
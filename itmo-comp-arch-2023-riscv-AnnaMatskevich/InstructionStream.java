@@ -0,0 +1,110 @@
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Decodes a text section lazily, {@link #BLOCK_SIZE} instructions at a time, so memory use
+ * does not depend on the section size. Labels must be known before the stream is created.
+ * The iterator is pull-based: nothing is decoded until the consumer asks for it.
+ * In a section with compressed instructions blocks are {@link #BLOCK_SIZE} halfwords long.
+ */
+public final class InstructionStream implements Iterator<Instruction> {
+    static final int BLOCK_SIZE = 4096;
+
+    private final ByteBuffer bytes;
+    private final int offset;
+    private final int address;
+    private final int count;
+    private final AddressMap names;
+    private final Isa isa;
+    private final boolean compressed;
+    private final DecodedText block;
+    private int decoded;
+    private int position;
+    private int size = -1;
+
+    /**
+     * {@code count} is the number of words of the section, or of halfwords if {@code isa} has compressed instructions.
+     */
+    InstructionStream(ByteBuffer bytes, int offset, int address, int count, AddressMap names, Isa isa) {
+        this.bytes = bytes;
+        this.offset = offset;
+        this.address = address;
+        this.count = count;
+        this.names = names;
+        this.isa = isa;
+        this.compressed = isa.compressed;
+        this.block = new DecodedText(BLOCK_SIZE, isa);
+    }
+
+    /**
+     * Number of instructions in the section; with compressed instructions they are counted on the first call.
+     */
+    public int size() {
+        if (size < 0) {
+            size = compressed ? 0 : count;
+            for (int i = 0; compressed && i < count; size++) {
+                i += i + 1 < count && !DecodeTable.isCompressed(bytes.getShort(offset + i * 2)) ? 2 : 1;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Decodes the next block into the same arrays as the previous one; null when the section is over.
+     */
+    DecodedText nextBlock() {
+        if (decoded == count) {
+            return null;
+        }
+        int n = Math.min(BLOCK_SIZE, count - decoded);
+        if (compressed) {
+            decoded += block.decodeCompressed(bytes, offset + decoded * 2, address + decoded * 2, n, count - decoded);
+        } else {
+            block.decode(bytes, offset + decoded * 4, address + decoded * 4, n);
+            decoded += n;
+        }
+        position = 0;
+        return block;
+    }
+
+    AddressMap names() {
+        return names;
+    }
+
+    @Override
+    public boolean hasNext() {
+        return position < block.size || decoded < count;
+    }
+
+    @Override
+    public Instruction next() {
+        if (position == block.size && nextBlock() == null) {
+            throw new NoSuchElementException();
+        }
+        int i = position++;
+        int code = block.code[i];
+        int op = block.op[i];
+        int addr = block.addr[i];
+        int imm = block.imm[i];
+        int length = block.compressed ? block.length[i] : 4;
+        int word = length == 2 ? isa.expand(code) : code;
+        byte format = DecodeTable.FORMAT[op];
+        String target = DecodeTable.isJump(format) ? names.get(addr + imm) : null;
+        return new Instruction(addr, code, length, op, DecodeTable.rdOf(format, word), DecodeTable.rs1Of(format, word),
+                DecodeTable.rs2Of(format, word), imm, names.get(addr), target);
+    }
+
+    /**
+     * The remaining instructions as a sequential stream.
+     */
+    public Stream<Instruction> stream() {
+        Spliterator<Instruction> spliterator = Spliterators.spliteratorUnknownSize(this,
+                Spliterator.ORDERED | Spliterator.NONNULL | Spliterator.IMMUTABLE);
+        return StreamSupport.stream(spliterator, false);
+    }
+}
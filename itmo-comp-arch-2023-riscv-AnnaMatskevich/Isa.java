@@ -0,0 +1,28 @@
+/**
+ * Instruction set of one file, chosen once from its ELF header: RV32 or RV64 decode tables,
+ * and whether 2-byte compressed instructions may occur between the 4-byte ones.
+ */
+final class Isa {
+    static final Isa RV32 = new Isa(false, false);
+
+    final boolean rv64;
+    final boolean compressed;
+    private final short[] table;
+
+    Isa(boolean rv64, boolean compressed) {
+        this.rv64 = rv64;
+        this.compressed = compressed;
+        this.table = DecodeTable.table(rv64);
+    }
+
+    int decode(int code) {
+        return DecodeTable.decode(table, code);
+    }
+
+    /**
+     * The 32-bit form of the compressed instruction {@code half}, 0 if there is none.
+     */
+    int expand(int half) {
+        return rv64 ? DecodeTable.expand64(half) : DecodeTable.expand(half);
+    }
+}
@@ -0,0 +1,194 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Builds listing lines straight into a byte buffer instead of going through String.format.
+ * Output is flushed to the underlying stream in blocks of {@link #BLOCK_SIZE} bytes;
+ * without a stream the buffer grows and the bytes can be copied out with {@link #writeTo}.
+ */
+public final class ListingWriter implements Closeable {
+    static final int BLOCK_SIZE = 1 << 16;
+    private static final byte[] HEX = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+    private static final ConcurrentLinkedQueue<byte[]> POOL = new ConcurrentLinkedQueue<>();
+
+    private final OutputStream outputStream;
+    private byte[] buffer;
+    private int position;
+    private long written;
+
+    public ListingWriter(OutputStream outputStream) {
+        this.outputStream = outputStream;
+        byte[] pooled = POOL.poll();
+        this.buffer = pooled != null ? pooled : new byte[BLOCK_SIZE];
+    }
+
+    public ListingWriter() {
+        this(null);
+    }
+
+    /**
+     * Writes {@code "   addr:\tcode\t mnemonic"}: the same as
+     * {@code String.format("   %05x:\t%08x\t%7s", addr, code, mnemonic)}.
+     */
+    public ListingWriter instruction(int addr, int code, String mnemonic) throws IOException {
+        return instruction(addr, code, 4, mnemonic);
+    }
+
+    /**
+     * Same as {@link #instruction(int, int, String)} for an instruction of {@code length} bytes:
+     * a 2-byte compressed instruction is printed as 4 hex digits padded with spaces to the width of 8.
+     */
+    public ListingWriter instruction(int addr, int code, int length, String mnemonic) throws IOException {
+        ensure(64);
+        buffer[position++] = ' ';
+        buffer[position++] = ' ';
+        buffer[position++] = ' ';
+        hex(addr, 5);
+        buffer[position++] = ':';
+        buffer[position++] = '\t';
+        hex(code, length * 2);
+        for (int i = length; i < 4; i++) {
+            buffer[position++] = ' ';
+            buffer[position++] = ' ';
+        }
+        buffer[position++] = '\t';
+        for (int i = mnemonic.length(); i < 7; i++) {
+            buffer[position++] = ' ';
+        }
+        return append(mnemonic);
+    }
+
+    public ListingWriter append(char c) throws IOException {
+        ensure(1);
+        buffer[position++] = (byte) c;
+        return this;
+    }
+
+    public ListingWriter append(String s) throws IOException {
+        int length = s.length();
+        ensure(length);
+        for (int i = 0; i < length; i++) {
+            char c = s.charAt(i);
+            if (c >= 0x80) {
+                return write(s.substring(i).getBytes(StandardCharsets.UTF_8));
+            }
+            buffer[position++] = (byte) c;
+        }
+        return this;
+    }
+
+    /**
+     * Appends {@code value} as unsigned hex with at least {@code minDigits} digits, like {@code %0<n>x}.
+     */
+    public ListingWriter appendHex(int value, int minDigits) throws IOException {
+        ensure(8);
+        hex(value, minDigits);
+        return this;
+    }
+
+    public ListingWriter appendHex(int value) throws IOException {
+        return appendHex(value, 1);
+    }
+
+    public ListingWriter appendDec(int value) throws IOException {
+        ensure(11);
+        long v = value;
+        if (v < 0) {
+            buffer[position++] = '-';
+            v = -v;
+        }
+        int digits = 1;
+        for (long p = 10; p <= v; p *= 10) {
+            digits++;
+        }
+        int end = position + digits;
+        for (int i = end - 1; i >= position; i--) {
+            buffer[i] = (byte) ('0' + v % 10);
+            v /= 10;
+        }
+        position = end;
+        return this;
+    }
+
+    public ListingWriter write(byte[] bytes) throws IOException {
+        return write(bytes, 0, bytes.length);
+    }
+
+    public ListingWriter write(byte[] bytes, int offset, int length) throws IOException {
+        if (outputStream != null && length > BLOCK_SIZE) {
+            flush();
+            outputStream.write(bytes, offset, length);
+            written += length;
+            return this;
+        }
+        ensure(length);
+        System.arraycopy(bytes, offset, buffer, position, length);
+        position += length;
+        return this;
+    }
+
+    /**
+     * Total number of bytes produced so far, flushed or not.
+     */
+    public long size() {
+        return written + position;
+    }
+
+    /**
+     * Copies the buffered bytes of an in-memory writer to {@code target}.
+     */
+    public void writeTo(ListingWriter target) throws IOException {
+        target.write(buffer, 0, position);
+    }
+
+    public void flush() throws IOException {
+        if (outputStream != null && position > 0) {
+            outputStream.write(buffer, 0, position);
+            written += position;
+            position = 0;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flush();
+            if (outputStream != null) {
+                outputStream.close();
+            }
+        } finally {
+            if (buffer.length == BLOCK_SIZE) {
+                POOL.offer(buffer);
+            }
+            buffer = null;
+        }
+    }
+
+    private void hex(int value, int minDigits) {
+        int digits = Math.max(minDigits, (32 - Integer.numberOfLeadingZeros(value) + 3) >> 2);
+        int end = position + digits;
+        for (int i = end - 1; i >= position; i--) {
+            buffer[i] = HEX[value & 0xf];
+            value >>>= 4;
+        }
+        position = end;
+    }
+
+    private void ensure(int length) throws IOException {
+        if (position + length <= buffer.length) {
+            return;
+        }
+        flush();
+        if (position + length > buffer.length) {
+            byte[] grown = new byte[Math.max(buffer.length * 2, position + length)];
+            System.arraycopy(buffer, 0, grown, 0, position);
+            if (buffer.length == BLOCK_SIZE) {
+                POOL.offer(buffer);
+            }
+            buffer = grown;
+        }
+    }
+}
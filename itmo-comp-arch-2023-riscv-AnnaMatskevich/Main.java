@@ -1,10 +1,158 @@
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
 public class Main {
-    public static void main(String[] args) {
+    private static final String USAGE = """
+            usage:
+              java Main [--threads N] [--all-sections] [--incremental] [--cache DIR [--cache-size MB]] [--binary] [--compressed] [--symbol NAME | --range FROM-TO] [--cfg dot|json] [--xref | --xref-of NAME] [--stats FILE] <input.elf> <output>
+              java Main --render <listing.rvdb> <output.txt>
+              java Main --batch <dir | glob | @manifest> [--out-dir DIR] [--jobs N] [--stats FILE]
+              java Main [options] [--jobs N] --serve PORT [--serve-root DIR]...
+            """;
+
+    public static void main(String[] args) throws InterruptedException {
         ElfParser parser = new ElfParser();
-        if (args.length != 2) {
+        String batch = null;
+        Path outputDir = null;
+        int jobs = Runtime.getRuntime().availableProcessors();
+        Path cacheDir = null;
+        long cacheMegabytes = 1024;
+        boolean render = false;
+        String stats = null;
+        Integer port = null;
+        List<Path> serveRoots = new ArrayList<>();
+        int i = 0;
+        try {
+            while (i < args.length && args[i].startsWith("--")) {
+                switch (args[i]) {
+                    case "--threads" -> {
+                        int threads = (int) number(args, ++i, 0, Integer.MAX_VALUE);
+                        parser.setThreads(threads == 0 ? Runtime.getRuntime().availableProcessors() : threads);
+                    }
+                    case "--all-sections" -> parser.setAllSections(true);
+                    case "--incremental" -> parser.setIncremental(true);
+                    case "--binary" -> parser.setBinary(true);
+                    case "--compressed" -> parser.setCompressed(true);
+                    case "--render" -> render = true;
+                    case "--stats" -> stats = value(args, ++i);
+                    case "--symbol" -> parser.setSymbol(value(args, ++i));
+                    case "--range" -> parser.setRange(value(args, ++i));
+                    case "--cfg" -> parser.setGraphFormat(value(args, ++i));
+                    case "--xref" -> parser.setXref(true);
+                    case "--xref-of" -> parser.setXrefQuery(value(args, ++i));
+                    case "--cache" -> cacheDir = Path.of(value(args, ++i));
+                    case "--cache-size" -> cacheMegabytes = number(args, ++i, 0, Long.MAX_VALUE >> 20);
+                    case "--batch" -> batch = value(args, ++i);
+                    case "--out-dir" -> outputDir = Path.of(value(args, ++i));
+                    case "--jobs" -> jobs = (int) number(args, ++i, 1, Integer.MAX_VALUE);
+                    case "--serve" -> port = (int) number(args, ++i, 0, 65535);
+                    case "--serve-root" -> serveRoots.add(Path.of(value(args, ++i)));
+                    default -> throw new IllegalArgumentException("unknown option " + args[i]);
+                }
+                i++;
+            }
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.print(USAGE);
+            return;
+        }
+        Metrics metrics = stats != null || port != null ? parser.enableMetrics() : null;
+        if (cacheDir != null) {
+            try {
+                parser.setCache(cacheDir, cacheMegabytes << 20);
+            } catch (IOException e) {
+                System.err.println("cant use cache directory " + cacheDir);
+            }
+        }
+        if (port != null) {
+            try {
+                DisassemblyService service = new DisassemblyService(parser, port, jobs, serveRoots);
+                System.err.println("listening on http://127.0.0.1:" + service.port() + "/disassemble");
+            } catch (IOException e) {
+                System.err.println("cant listen on port " + port + ": " + e.getMessage());
+            }
+            return;
+        }
+        if (batch != null) {
+            boolean failed = runBatch(parser, batch, outputDir, jobs);
+            dumpStats(metrics, stats);
+            if (failed) {
+                System.exit(1);
+            }
+            return;
+        }
+        if (args.length - i != 2) {
             System.err.println("2 args expected");
+            System.err.print(USAGE);
+            return;
+        }
+        if (render) {
+            try {
+                parser.render(args[i], args[i + 1]);
+            } catch (IOException e) {
+                System.err.println("cant render " + args[i] + ": " + e.getMessage());
+            }
+            return;
+        }
+        parser.parse(args[i], args[i + 1]);
+        dumpStats(metrics, stats);
+    }
+
+    /**
+     * The argument at {@code i}, which is the value of the option before it.
+     */
+    private static String value(String[] args, int i) {
+        if (i >= args.length) {
+            throw new IllegalArgumentException(args[i - 1] + " expects a value");
         }
-        parser.parse(args[0], args[1]);
+        return args[i];
     }
 
+    /**
+     * The argument at {@code i} as a number from {@code min} to {@code max}.
+     */
+    private static long number(String[] args, int i, long min, long max) {
+        String value = value(args, i);
+        try {
+            long number = Long.parseLong(value);
+            if (number >= min && number <= max) {
+                return number;
+            }
+        } catch (NumberFormatException e) {
+            // reported below
+        }
+        throw new IllegalArgumentException(args[i - 1] + " expects a number from " + min + " to " + max + ", got " + value);
+    }
+
+    private static void dumpStats(Metrics metrics, String file) {
+        if (metrics == null) {
+            return;
+        }
+        try {
+            metrics.dump(file);
+        } catch (IOException e) {
+            System.err.println("cant write stats to " + file);
+        }
+    }
+
+    /**
+     * Returns whether any file could not be disassembled.
+     */
+    private static boolean runBatch(ElfParser parser, String source, Path outputDir, int jobs) throws InterruptedException {
+        List<BatchDisassembler.Job> files;
+        try {
+            files = BatchDisassembler.jobs(source, outputDir);
+        } catch (IOException e) {
+            System.err.println("cant list inputs: " + e.getMessage());
+            return true;
+        }
+        List<BatchDisassembler.Failure> failures = new BatchDisassembler(parser, jobs).run(files);
+        for (BatchDisassembler.Failure failure : failures) {
+            System.err.println(failure.input() + ": " + failure.error());
+        }
+        System.err.println(files.size() + " files, " + failures.size() + " failed");
+        return !failures.isEmpty();
+    }
 }
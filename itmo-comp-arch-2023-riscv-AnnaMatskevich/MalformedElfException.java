@@ -0,0 +1,20 @@
+import java.io.IOException;
+
+/**
+ * Thrown when a file cannot be disassembled at all: it is not a little-endian ELF32 or ELF64 file,
+ * or its file header is cut short.
+ */
+public final class MalformedElfException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    private final transient ElfDiagnostic diagnostic;
+
+    MalformedElfException(ElfDiagnostic.Kind kind, long offset, String message) {
+        super(message);
+        this.diagnostic = new ElfDiagnostic(kind, offset, message);
+    }
+
+    public ElfDiagnostic diagnostic() {
+        return diagnostic;
+    }
+}
@@ -0,0 +1,287 @@
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Stage timings and counters of the runs of one {@link ElfParser}, summed over all files it disassembled.
+ * They are exposed as the MXBean {@code riscv.disassembler:type=Metrics}, as JFR events
+ * and as JSON from {@link #toJson()}.
+ * <p>
+ * {@link #DISABLED} is used unless metrics are switched on; its stage timers are a shared no-op
+ * and its counters return at once, so the hot paths only pay for a field check.
+ * Allocated bytes are those of the calling thread, the pool threads of a parallel run are not included.
+ */
+public final class Metrics implements MetricsMXBean {
+    enum Stage {
+        LOAD, SECTIONS, SYMTAB, LABELS, PRINT
+    }
+
+    static final Metrics DISABLED = new Metrics(false);
+    private static final Timer NO_TIMER = new Timer(null, null);
+    private static final com.sun.management.ThreadMXBean THREADS = threads();
+
+    private final boolean enabled;
+    private final long[] nanos = new long[Stage.values().length];
+    private final long[] allocated = new long[Stage.values().length];
+    private final long[] instructions = new long[DecodeTable.count()];
+    private final Map<String, Long> errors = new TreeMap<>();
+    private long files;
+    private long labels;
+    private long bytesWritten;
+
+    private Metrics(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * New enabled metrics, registered as the MXBean in place of earlier ones.
+     */
+    static Metrics create() {
+        Metrics metrics = new Metrics(true);
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName("riscv.disassembler:type=Metrics");
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+            server.registerMBean(metrics, name);
+        } catch (JMException e) {
+            // the counters are still available through toJson()
+        }
+        return metrics;
+    }
+
+    boolean enabled() {
+        return enabled;
+    }
+
+    /**
+     * Starts timing {@code stage}; the time and allocation are added when the timer is closed.
+     */
+    Timer stage(Stage stage) {
+        return enabled ? new Timer(this, stage) : NO_TIMER;
+    }
+
+    /**
+     * Counts the decoded instructions {@code [from, to)} of {@code text}.
+     */
+    void count(DecodedText text, int from, int to) {
+        if (!enabled) {
+            return;
+        }
+        int[] local = new int[instructions.length];
+        for (int i = from; i < to; i++) {
+            local[text.op[i]]++;
+        }
+        synchronized (this) {
+            for (int op = 0; op < local.length; op++) {
+                instructions[op] += local[op];
+            }
+        }
+    }
+
+    /**
+     * Records one disassembled file with its generated labels and the size of its output.
+     */
+    synchronized void file(int generatedLabels, long bytes) {
+        if (enabled) {
+            files++;
+            labels += generatedLabels;
+            bytesWritten += bytes;
+        }
+    }
+
+    synchronized void error(String reason) {
+        if (enabled) {
+            errors.merge(reason, 1L, Long::sum);
+        }
+    }
+
+    private synchronized void add(Stage stage, long time, long bytes) {
+        nanos[stage.ordinal()] += time;
+        allocated[stage.ordinal()] += bytes;
+    }
+
+    @Override
+    public synchronized long getFiles() {
+        return files;
+    }
+
+    @Override
+    public synchronized Map<String, Long> getErrors() {
+        return new TreeMap<>(errors);
+    }
+
+    @Override
+    public synchronized Map<String, Long> getStageNanos() {
+        return byStage(nanos);
+    }
+
+    @Override
+    public synchronized Map<String, Long> getStageAllocatedBytes() {
+        return byStage(allocated);
+    }
+
+    @Override
+    public synchronized Map<String, Long> getInstructions() {
+        Map<String, Long> result = new LinkedHashMap<>();
+        for (int op = 0; op < instructions.length; op++) {
+            // the RV32 and RV64 forms of a shift have different ids but the same mnemonic
+            result.merge(DecodeTable.MNEMONIC[op], instructions[op], Long::sum);
+        }
+        return result;
+    }
+
+    @Override
+    public synchronized long getInvalidInstructions() {
+        return instructions[DecodeTable.INVALID];
+    }
+
+    @Override
+    public synchronized long getLabels() {
+        return labels;
+    }
+
+    @Override
+    public synchronized long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    private static Map<String, Long> byStage(long[] values) {
+        Map<String, Long> result = new LinkedHashMap<>();
+        for (Stage stage : Stage.values()) {
+            result.put(stage.name().toLowerCase(), values[stage.ordinal()]);
+        }
+        return result;
+    }
+
+    synchronized String toJson() {
+        long total = 0;
+        for (long n : instructions) {
+            total += n;
+        }
+        StringBuilder json = new StringBuilder("{\n");
+        json.append("  \"files\": ").append(files).append(",\n");
+        json.append("  \"errors\": ");
+        appendObject(json, errors);
+        json.append(",\n  \"stages\": {");
+        for (Stage stage : Stage.values()) {
+            json.append(stage.ordinal() == 0 ? "\n" : ",\n").append("    \"").append(stage.name().toLowerCase())
+                    .append("\": {\"nanos\": ").append(nanos[stage.ordinal()])
+                    .append(", \"allocatedBytes\": ").append(allocated[stage.ordinal()]).append('}');
+        }
+        json.append("\n  },\n");
+        json.append("  \"instructions\": ").append(total).append(",\n");
+        json.append("  \"invalidInstructions\": ").append(instructions[DecodeTable.INVALID]).append(",\n");
+        json.append("  \"instructionMix\": ");
+        appendObject(json, getInstructions());
+        json.append(",\n  \"labels\": ").append(labels).append(",\n");
+        json.append("  \"bytesWritten\": ").append(bytesWritten).append("\n}\n");
+        return json.toString();
+    }
+
+    /**
+     * Writes {@link #toJson()} to {@code file}, or to System.err for {@code "-"}.
+     */
+    void dump(String file) throws IOException {
+        if (file.equals("-")) {
+            System.err.print(toJson());
+        } else {
+            Files.writeString(Path.of(file), toJson());
+        }
+    }
+
+    private static void appendObject(StringBuilder json, Map<String, Long> values) {
+        json.append('{');
+        String separator = "";
+        for (Map.Entry<String, Long> entry : values.entrySet()) {
+            json.append(separator).append('"');
+            for (char c : entry.getKey().toCharArray()) {
+                if (c == '"' || c == '\\') {
+                    json.append('\\').append(c);
+                } else if (c < ' ') {
+                    json.append(String.format("\\u%04x", (int) c));
+                } else {
+                    json.append(c);
+                }
+            }
+            json.append("\": ").append(entry.getValue());
+            separator = ", ";
+        }
+        json.append('}');
+    }
+
+    private static com.sun.management.ThreadMXBean threads() {
+        if (ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean threads
+                && threads.isThreadAllocatedMemorySupported()) {
+            return threads;
+        }
+        return null;
+    }
+
+    private static long allocatedBytes() {
+        return THREADS == null ? 0 : THREADS.getCurrentThreadAllocatedBytes();
+    }
+
+    /**
+     * Time and allocation of one stage; also committed as a JFR event when one is being recorded.
+     */
+    static final class Timer implements AutoCloseable {
+        private final Metrics metrics;
+        private final Stage stage;
+        private final StageEvent event;
+        private final long start;
+        private final long startBytes;
+
+        private Timer(Metrics metrics, Stage stage) {
+            this.metrics = metrics;
+            this.stage = stage;
+            this.event = metrics == null ? null : new StageEvent();
+            if (event != null) {
+                event.begin();
+            }
+            this.startBytes = metrics == null ? 0 : allocatedBytes();
+            this.start = System.nanoTime();
+        }
+
+        @Override
+        public void close() {
+            if (metrics == null) {
+                return;
+            }
+            long time = System.nanoTime() - start;
+            long bytes = allocatedBytes() - startBytes;
+            metrics.add(stage, time, bytes);
+            event.end();
+            if (event.shouldCommit()) {
+                event.stage = stage.name().toLowerCase();
+                event.allocated = bytes;
+                event.commit();
+            }
+        }
+    }
+
+    @Name("riscv.disassembler.Stage")
+    @Label("Disassembler Stage")
+    @Category("Disassembler")
+    static final class StageEvent extends Event {
+        @Label("Stage")
+        String stage;
+
+        @Label("Allocated")
+        @DataAmount
+        long allocated;
+    }
+}
@@ -0,0 +1,23 @@
+import java.util.Map;
+
+/**
+ * Management view of {@link Metrics}; stage maps are keyed by the lower-case stage name,
+ * the instruction map by mnemonic.
+ */
+public interface MetricsMXBean {
+    long getFiles();
+
+    Map<String, Long> getErrors();
+
+    Map<String, Long> getStageNanos();
+
+    Map<String, Long> getStageAllocatedBytes();
+
+    Map<String, Long> getInstructions();
+
+    long getInvalidInstructions();
+
+    long getLabels();
+
+    long getBytesWritten();
+}
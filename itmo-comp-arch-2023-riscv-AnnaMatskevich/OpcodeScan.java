@@ -0,0 +1,48 @@
+import java.nio.ByteBuffer;
+
+/**
+ * Pre-pass over a 32-bit text section that marks the words whose major opcode is JAL or BRANCH,
+ * the only ones label discovery has to decode. The marks are candidates: a branch with an unused
+ * funct3 is still marked and is rejected when it is decoded.
+ * <p>
+ * {@link #SCALAR} is always there. {@code VectorOpcodeScan} from {@code vector/} checks a whole register
+ * of words per step with the incubating Vector API; it is used when it was compiled in and the JVM
+ * was started with {@code --add-modules jdk.incubator.vector}.
+ */
+interface OpcodeScan {
+    int JAL = 0b1101111;
+    int BRANCH = 0b1100011;
+    // words marked per call, so that the marks of one call stay in a few cache lines
+    int BLOCK = 4096;
+
+    OpcodeScan SCALAR = (bytes, offset, count, marks) -> {
+        for (int i = 0; i < count; i++) {
+            int major = bytes.getInt(offset + i * 4) & 0x7f;
+            if (major == JAL || major == BRANCH) {
+                marks[i >>> 6] |= 1L << i;
+            }
+        }
+    };
+
+    /**
+     * Sets bit {@code i} of {@code marks}, which must be clear, for every word {@code i} of the
+     * {@code count} little-endian words at {@code offset} whose low 7 bits are JAL or BRANCH.
+     */
+    void scan(ByteBuffer bytes, int offset, int count, long[] marks);
+
+    /**
+     * The vector scan, or null when it is not compiled in or the incubator module is not loaded.
+     */
+    static OpcodeScan vector() {
+        try {
+            return (OpcodeScan) Class.forName("VectorOpcodeScan").getDeclaredConstructor().newInstance();
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return null;
+        }
+    }
+
+    static OpcodeScan best() {
+        OpcodeScan vector = vector();
+        return vector != null ? vector : SCALAR;
+    }
+}
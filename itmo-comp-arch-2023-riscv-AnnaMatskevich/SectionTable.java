@@ -0,0 +1,215 @@
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Section header table of an ELF32 or ELF64 file, read once into parallel arrays.
+ * 64-bit fields are narrowed by {@link ElfLayout}.
+ * Section names are only looked up in .shstrtab when they are asked for.
+ * <p>
+ * Every range is checked here, once: headers that are not in the file are dropped, and a section
+ * whose data runs past the end of the file is cut to the bytes that are there, so code reading
+ * {@code [offset, offset + fileSize)} needs no checks of its own. Each problem is added to the diagnostics.
+ */
+final class SectionTable {
+    static final int SHT_SYMTAB = 2;
+    static final int SHT_STRTAB = 3;
+    static final int SHT_NOBITS = 8;
+    static final int SHF_ALLOC = 0x2;
+    static final int SHF_EXECINSTR = 0x4;
+    private static final int SHT_NULL = 0;
+    private static final int SHN_UNDEF = 0;
+    private static final int SHN_XINDEX = 0xffff;
+
+    final int count;
+    final int[] nameOffset;
+    final int[] type;
+    final int[] flags;
+    final int[] addr;
+    final int[] offset;
+    final int[] size;
+    final int[] link;
+    final int[] entsize;
+
+    private final ByteBuffer bytes;
+    private final int namesOffset;
+    private final int namesSize;
+    private final String[] names;
+
+    SectionTable(ByteBuffer bytes, ElfLayout layout, List<ElfDiagnostic> diagnostics) {
+        this.bytes = bytes;
+        int limit = bytes.limit();
+        int tableOffset = layout.sectionTableOffset(bytes);
+        int headerSize = layout.sectionHeaderSize(bytes);
+        int headers = layout.sectionCount(bytes);
+        int namesIndex = layout.sectionNamesIndex(bytes);
+        if (tableOffset != 0 || headers != 0) {
+            if (headerSize < layout.minSectionHeaderSize()) {
+                diagnostics.add(new ElfDiagnostic(ElfDiagnostic.Kind.SECTION_TABLE, -1,
+                        "section header size " + headerSize + " is less than " + layout.minSectionHeaderSize()));
+                headers = 0;
+            } else if (headerSize > limit || Integer.compareUnsigned(tableOffset, limit - headerSize) > 0) {
+                diagnostics.add(new ElfDiagnostic(ElfDiagnostic.Kind.SECTION_TABLE, Integer.toUnsignedLong(tableOffset),
+                        "section header table is past the end of the file"));
+                headers = 0;
+            } else {
+                if (headers == 0) {
+                    // more than 0xff00 sections: the real count is kept in the size field of section 0
+                    headers = layout.sectionSize(bytes, tableOffset);
+                }
+                int fit = (limit - tableOffset) / headerSize;
+                if (Integer.compareUnsigned(headers, fit) > 0) {
+                    diagnostics.add(new ElfDiagnostic(ElfDiagnostic.Kind.SECTION_TABLE, tableOffset,
+                            Integer.toUnsignedString(headers) + " section headers, " + fit + " of them are in the file"));
+                    headers = fit;
+                }
+            }
+        }
+        if (namesIndex == SHN_XINDEX && headers > 0) {
+            namesIndex = layout.sectionLink(bytes, tableOffset);
+        }
+        count = headers;
+        nameOffset = new int[count];
+        type = new int[count];
+        flags = new int[count];
+        addr = new int[count];
+        offset = new int[count];
+        size = new int[count];
+        link = new int[count];
+        entsize = new int[count];
+        names = new String[count];
+        for (int i = 0; i < count; i++) {
+            int now = tableOffset + i * headerSize;
+            nameOffset[i] = layout.sectionName(bytes, now);
+            type[i] = layout.sectionType(bytes, now);
+            flags[i] = layout.sectionFlags(bytes, now);
+            addr[i] = layout.sectionAddr(bytes, now);
+            offset[i] = layout.sectionOffset(bytes, now);
+            size[i] = layout.sectionSize(bytes, now);
+            link[i] = layout.sectionLink(bytes, now);
+            entsize[i] = layout.sectionEntsize(bytes, now);
+            if (type[i] != SHT_NULL && type[i] != SHT_NOBITS
+                    && (Integer.compareUnsigned(offset[i], limit) > 0 || Integer.compareUnsigned(size[i], limit - offset[i]) > 0)) {
+                diagnostics.add(new ElfDiagnostic(ElfDiagnostic.Kind.SECTION_BOUNDS, now, "section " + i + " has 0x"
+                        + Integer.toHexString(size[i]) + " bytes at 0x" + Integer.toHexString(offset[i])
+                        + ", past the end of the file at 0x" + Integer.toHexString(limit)));
+                if (Integer.compareUnsigned(offset[i], limit) > 0) {
+                    offset[i] = limit;
+                }
+                size[i] = limit - offset[i];
+            }
+        }
+        if (Integer.compareUnsigned(namesIndex, count) < 0) {
+            namesOffset = offset[namesIndex];
+            namesSize = fileSize(namesIndex);
+        } else {
+            if (namesIndex != SHN_UNDEF) {
+                diagnostics.add(new ElfDiagnostic(ElfDiagnostic.Kind.SECTION_NAMES, -1,
+                        "section name table " + namesIndex + " does not exist, there are " + count + " sections"));
+            }
+            namesOffset = 0;
+            namesSize = 0;
+        }
+        int badNames = 0;
+        for (int i = 0; i < count; i++) {
+            if (Integer.compareUnsigned(nameOffset[i], namesSize) >= 0 && namesSize > 0) {
+                badNames++;
+            }
+        }
+        if (badNames > 0) {
+            diagnostics.add(new ElfDiagnostic(ElfDiagnostic.Kind.SECTION_NAMES, namesOffset,
+                    badNames + " section names are outside the section name table"));
+        }
+    }
+
+    /**
+     * Number of bytes section {@code i} has in the file: none for SHT_NULL and SHT_NOBITS, which only take memory.
+     */
+    int fileSize(int i) {
+        return type[i] == SHT_NULL || type[i] == SHT_NOBITS ? 0 : size[i];
+    }
+
+    String name(int i) {
+        if (names[i] == null) {
+            if (Integer.compareUnsigned(nameOffset[i], namesSize) >= 0) {
+                names[i] = "";
+                return names[i];
+            }
+            int start = namesOffset + nameOffset[i];
+            int end = start;
+            while (end < namesOffset + namesSize && bytes.get(end) != 0) {
+                end++;
+            }
+            char[] chars = new char[end - start];
+            for (int k = 0; k < chars.length; k++) {
+                chars[k] = (char) (bytes.get(start + k) & 0xff);
+            }
+            names[i] = new String(chars);
+        }
+        return names[i];
+    }
+
+    /**
+     * Index of the last section called {@code name}, or -1. Names are compared in place, without creating Strings.
+     */
+    int find(String name) {
+        for (int i = count - 1; i >= 0; i--) {
+            if (nameEquals(i, name)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Index of the first section of the given {@code sh_type}, or -1.
+     */
+    int findByType(int sectionType) {
+        for (int i = 0; i < count; i++) {
+            if (type[i] == sectionType) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Index of the allocated section whose addresses contain {@code address}, or -1.
+     */
+    int findByAddress(int address) {
+        for (int i = 0; i < count; i++) {
+            if ((flags[i] & SHF_ALLOC) != 0 && Integer.compareUnsigned(address - addr[i], size[i]) < 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Indexes of the sections holding instructions, in header order.
+     */
+    int[] executable() {
+        int n = 0;
+        int[] result = new int[count];
+        for (int i = 0; i < count; i++) {
+            if ((flags[i] & SHF_EXECINSTR) != 0 && fileSize(i) > 0) {
+                result[n++] = i;
+            }
+        }
+        return Arrays.copyOf(result, n);
+    }
+
+    private boolean nameEquals(int i, String name) {
+        int length = name.length();
+        if (Integer.compareUnsigned(nameOffset[i], namesSize) >= 0 || length >= namesSize - nameOffset[i]) {
+            return false;
+        }
+        int start = namesOffset + nameOffset[i];
+        for (int k = 0; k < length; k++) {
+            if ((bytes.get(start + k) & 0xff) != name.charAt(k)) {
+                return false;
+            }
+        }
+        return bytes.get(start + length) == 0;
+    }
+}
@@ -0,0 +1,35 @@
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * Symbol indexes of recently disassembled files, shared by the runs of a long-lived process.
+ * An entry is keyed by the identity of its file, which the caller gives: {@link DisassemblyService}
+ * uses the real path, modification time and size, so a rewritten file gets a new entry without
+ * hashing its tables on every request. It holds the FUNC symbols; a run takes a copy of the names
+ * and adds its own labels to it.
+ * The least recently used entries are dropped beyond {@code maxEntries}.
+ */
+final class SymbolCache {
+    record Entry(AddressMap names, int[] starts) {
+    }
+
+    private final int maxEntries;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+    SymbolCache(int maxEntries) {
+        this.maxEntries = maxEntries;
+    }
+
+    synchronized Entry get(String key) {
+        return entries.get(key);
+    }
+
+    synchronized void put(String key, Entry entry) {
+        entries.put(key, entry);
+        Iterator<String> oldest = entries.keySet().iterator();
+        while (entries.size() > maxEntries) {
+            oldest.next();
+            oldest.remove();
+        }
+    }
+}
@@ -0,0 +1,246 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Symbol table of an ELF32 or ELF64 file, read once into parallel arrays.
+ * Names are only made into Strings when they are asked for; {@link #print} copies them from .strtab
+ * straight into the listing. Rows can be printed from several threads, each with its own range.
+ */
+final class SymbolTable {
+    static final int STT_OBJECT = 1;
+    static final int STT_FUNC = 2;
+    private static final byte[] HEX = "0123456789ABCDEF".getBytes(StandardCharsets.US_ASCII);
+    // names of the bind, type and visibility values; a null is printed as "null", as String.format did
+    private static final String[] BIND = new String[16];
+    private static final String[] TYPE = new String[16];
+    private static final String[] VISIBILITY = {"DEFAULT", "INTERNAL", "HIDDEN", "PROTECTED"};
+    // names of the reserved section indexes 0xff00..0xffff
+    private static final String[] INDEX = new String[256];
+
+    static {
+        BIND[0] = "LOCAL";
+        BIND[1] = "GLOBAL";
+        BIND[2] = "WEAK";
+        BIND[10] = "LOOS";
+        BIND[12] = "HIOS";
+        BIND[13] = "LOPROC";
+        BIND[15] = "HIPROC";
+        TYPE[0] = "NOTYPE";
+        TYPE[STT_OBJECT] = "OBJECT";
+        TYPE[STT_FUNC] = "FUNC";
+        TYPE[3] = "SECTION";
+        TYPE[4] = "FILE";
+        TYPE[5] = "COMMON";
+        TYPE[6] = "TLS";
+        TYPE[10] = "LOOS";
+        TYPE[12] = "HIOS";
+        TYPE[13] = "LOPROC";
+        TYPE[15] = "HIPROC";
+        INDEX[0x00] = "LOPROC";
+        INDEX[0x1f] = "HIPROC";
+        INDEX[0x20] = "LOOS";
+        INDEX[0x3f] = "HIOS";
+        INDEX[0xf1] = "ABS";
+        INDEX[0xf2] = "COMMON";
+        INDEX[0xff] = "XINDEX";
+    }
+
+    final int count;
+    final int[] nameOffset;
+    final long[] value;
+    final long[] size;
+    final byte[] info;
+    final byte[] other;
+    final char[] index;
+
+    private final ByteBuffer bytes;
+    private final int namesOffset;
+    private final int namesSize;
+    private final String[] names;
+
+    /**
+     * Reads the {@code count} entries at {@code offset}; their names are in the {@code namesSize} bytes
+     * at {@code namesOffset}.
+     */
+    SymbolTable(ByteBuffer bytes, ElfLayout layout, int offset, int count, int namesOffset, int namesSize) {
+        this.bytes = bytes;
+        this.count = count;
+        this.namesOffset = namesOffset;
+        this.namesSize = namesSize;
+        int entrySize = layout.symbolEntrySize();
+        nameOffset = new int[count];
+        value = new long[count];
+        size = new long[count];
+        info = new byte[count];
+        other = new byte[count];
+        index = new char[count];
+        names = new String[count];
+        for (int i = 0; i < count; i++) {
+            int now = offset + i * entrySize;
+            nameOffset[i] = layout.symbolName(bytes, now);
+            value[i] = layout.symbolValue(bytes, now);
+            size[i] = layout.symbolSize(bytes, now);
+            info[i] = (byte) layout.symbolInfo(bytes, now);
+            other[i] = (byte) layout.symbolOther(bytes, now);
+            index[i] = (char) layout.symbolIndex(bytes, now);
+        }
+    }
+
+    int type(int i) {
+        return info[i] & 0xf;
+    }
+
+    /**
+     * Name of symbol {@code i}, "" if it is outside .strtab; made once and then kept.
+     */
+    String name(int i) {
+        if (names[i] == null) {
+            int start = nameStart(i);
+            if (start < 0) {
+                names[i] = "";
+                return names[i];
+            }
+            byte[] name = new byte[nameEnd(start) - start];
+            bytes.get(start, name);
+            names[i] = new String(name, StandardCharsets.ISO_8859_1);
+        }
+        return names[i];
+    }
+
+    private int nameStart(int i) {
+        return Integer.compareUnsigned(nameOffset[i], namesSize) >= 0 ? -1 : namesOffset + nameOffset[i];
+    }
+
+    private int nameEnd(int start) {
+        if (start < 0) {
+            return start;
+        }
+        int end = start;
+        while (end < namesOffset + namesSize && bytes.get(end) != 0) {
+            end++;
+        }
+        return end;
+    }
+
+    /**
+     * Prints the rows of entries {@code [from, to)} as
+     * {@code String.format("[%4d] 0x%-15X %5d %-8s %-8s %-8s %6s %s\n", ...)} printed them:
+     * names are ISO-8859-1 bytes written as UTF-8.
+     */
+    void print(ListingWriter out, int from, int to) throws IOException {
+        Row row = new Row();
+        for (int i = from; i < to; i++) {
+            int start = nameStart(i);
+            int end = nameEnd(start);
+            row.reset(128 + (end - start) * 2);
+            row.put('[').decimal(i, 4).put(']').put(' ').put('0').put('x').hex(value[i], 15).put(' ')
+                    .decimal(size[i], 5).put(' ')
+                    .text(TYPE[info[i] & 0xf], -8).put(' ')
+                    .text(BIND[(info[i] & 0xff) >> 4], -8).put(' ')
+                    .text(VISIBILITY[other[i] & 0x3], -8).put(' ');
+            int shndx = index[i];
+            if (shndx == 0) {
+                row.text("UNDEF", 6);
+            } else if (shndx >= 0xff00 && INDEX[shndx - 0xff00] != null) {
+                row.text(INDEX[shndx - 0xff00], 6);
+            } else {
+                row.decimal(shndx, 6);
+            }
+            row.put(' ');
+            for (int k = start; k < end; k++) {
+                row.latin1(bytes.get(k) & 0xff);
+            }
+            row.put('\n');
+            out.write(row.buffer, 0, row.length);
+        }
+    }
+
+    /**
+     * One row of the table, built in a reused buffer.
+     */
+    private static final class Row {
+        byte[] buffer = new byte[128];
+        int length;
+
+        void reset(int capacity) {
+            if (buffer.length < capacity) {
+                buffer = Arrays.copyOf(buffer, Math.max(capacity, buffer.length * 2));
+            }
+            length = 0;
+        }
+
+        Row put(char c) {
+            buffer[length++] = (byte) c;
+            return this;
+        }
+
+        void latin1(int c) {
+            if (c < 0x80) {
+                buffer[length++] = (byte) c;
+            } else {
+                buffer[length++] = (byte) (0xc0 | (c >> 6));
+                buffer[length++] = (byte) (0x80 | (c & 0x3f));
+            }
+        }
+
+        /**
+         * {@code s} padded with spaces to {@code width}: on the left for a positive width, on the right for a negative one.
+         */
+        Row text(String s, int width) {
+            String t = String.valueOf(s);
+            int pad = Math.abs(width) - t.length();
+            if (width > 0) {
+                spaces(pad);
+            }
+            for (int k = 0; k < t.length(); k++) {
+                buffer[length++] = (byte) t.charAt(k);
+            }
+            if (width < 0) {
+                spaces(pad);
+            }
+            return this;
+        }
+
+        /**
+         * Like {@code %<width>d}.
+         */
+        Row decimal(long v, int width) {
+            if (v < 0) {
+                return text(Long.toString(v), width);
+            }
+            int digits = 1;
+            for (long p = 10; p <= v && digits < 19; p *= 10) {
+                digits++;
+            }
+            spaces(width - digits);
+            for (int k = length + digits - 1; k >= length; k--) {
+                buffer[k] = (byte) ('0' + v % 10);
+                v /= 10;
+            }
+            length += digits;
+            return this;
+        }
+
+        /**
+         * Like {@code %-<width>X}: unsigned upper-case hex, padded on the right.
+         */
+        Row hex(long v, int width) {
+            int digits = Math.max(1, (64 - Long.numberOfLeadingZeros(v) + 3) >> 2);
+            for (int k = length + digits - 1; k >= length; k--) {
+                buffer[k] = HEX[(int) (v & 0xf)];
+                v >>>= 4;
+            }
+            length += digits;
+            spaces(width - digits);
+            return this;
+        }
+
+        private void spaces(int n) {
+            for (int k = 0; k < n; k++) {
+                buffer[length++] = ' ';
+            }
+        }
+    }
+}
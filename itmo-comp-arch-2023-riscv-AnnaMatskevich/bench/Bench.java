@@ -0,0 +1,373 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.function.LongSupplier;
+
+/**
+ * Benchmarks of the disassembler stages: file loading, field reads, decoding per opcode class,
+ * the fixed and variable-length block decoders, the jal/branch pre-pass, the section scan,
+ * the symbol table scan, label collection and the whole run.
+ * Every stage is measured on the bundled test ELFs and on synthetic ELFs generated here.
+ * <p>
+ * Run from the project directory:
+ * <pre>
+ *   javac -d /tmp/bench *.java bench/*.java
+ *   java -cp /tmp/bench Bench [name filter]
+ * </pre>
+ * With {@code javac --add-modules jdk.incubator.vector -d /tmp/bench *.java bench/*.java vector/*.java}
+ * and {@code java --add-modules jdk.incubator.vector} the vector pre-pass is measured too.
+ * <p>
+ * The timing loop here is a quick check that needs nothing but javac. The JMH benchmarks in {@code jmh/}
+ * run the same workloads, taken from {@link #workloads}, with forks, warmup and a proper blackhole.
+ */
+public class Bench {
+    private static final int WARMUP = 5;
+    private static final int ITERATIONS = 5;
+    private static final long ITERATION_NANOS = 500_000_000L;
+
+    // opcode, funct3 values (null: any), funct7 values (null: any); named after the old per-opcode decoders
+    private static final Object[][] CLASSES = {
+            {"LUI_AUIPC", new int[]{0b0110111, 0b0010111}, null, null},
+            {"JAL", new int[]{0b1101111}, null, null},
+            {"JALR", new int[]{0b1100111}, new int[]{0}, null},
+            {"B", new int[]{0b1100011}, new int[]{0, 1, 4, 5, 6, 7}, null},
+            {"L", new int[]{0b0000011}, new int[]{0, 1, 2, 4, 5}, null},
+            {"S", new int[]{0b0100011}, new int[]{0, 1, 2}, null},
+            {"ADDI_SRAI", new int[]{0b0010011}, null, new int[]{0, 0b0100000}},
+            {"ADD_AND", new int[]{0b0110011}, null, new int[]{0, 1, 0b0100000}},
+    };
+
+    private static volatile long sink;
+
+    interface Op {
+        long run() throws Exception;
+    }
+
+    private final String filter;
+    private final List<String> results = new ArrayList<>();
+    // when not null, measure() only collects the workloads
+    private final Map<String, Op> workloads;
+
+    private Bench(String filter, Map<String, Op> workloads) {
+        this.filter = filter;
+        this.workloads = workloads;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Bench bench = new Bench(args.length > 0 ? args[0] : "", null);
+        bench.all();
+        System.out.println();
+        bench.results.forEach(System.out::println);
+    }
+
+    /**
+     * Every workload of {@link #main} by the name it is reported under, e.g. {@code "decode ADD_AND"} or
+     * {@code "parseElf synthetic-1M.elf"}, set up but not run. Checked exceptions of a run are rethrown unchecked.
+     */
+    public static Map<String, LongSupplier> workloads() throws IOException {
+        Map<String, Op> ops = new LinkedHashMap<>();
+        new Bench("", ops).all();
+        Map<String, LongSupplier> result = new LinkedHashMap<>();
+        ops.forEach((name, op) -> result.put(name, () -> {
+            try {
+                return op.run();
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new IllegalStateException(name, e);
+            }
+        }));
+        return result;
+    }
+
+    private void all() throws IOException {
+        List<Path> inputs = new ArrayList<>();
+        for (String name : new String[]{"test.elf", "test2.elf", "test22.elf"}) {
+            Path path = Path.of("test_data", name);
+            if (Files.exists(path)) {
+                inputs.add(path);
+            }
+        }
+        Path dir = Files.createTempDirectory("bench");
+        dir.toFile().deleteOnExit();
+        for (int words : new int[]{1 << 20, 1 << 23}) {
+            Path path = dir.resolve("synthetic-" + (words >> 20) + "M.elf");
+            path.toFile().deleteOnExit();
+            Files.write(path, syntheticElf(words, words / 256, 42));
+            inputs.add(path);
+        }
+        decodeClasses();
+        decodeBlocks();
+        opcodeScan();
+        for (Path input : inputs) {
+            stages(input);
+        }
+    }
+
+    private void decodeClasses() {
+        Random random = new Random(1);
+        for (Object[] c : CLASSES) {
+            int[] words = new int[4096];
+            for (int i = 0; i < words.length; i++) {
+                words[i] = randomWord(random, (int[]) c[1], (int[]) c[2], (int[]) c[3]);
+            }
+            measure("decode " + c[0], words.length, () -> {
+                long sum = 0;
+                for (int word : words) {
+                    int op = DecodeTable.decode(word);
+                    sum += op + DecodeTable.imm(DecodeTable.FORMAT[op], word);
+                }
+                return sum;
+            });
+        }
+    }
+
+    /**
+     * The block decoders on aligned 32-bit code, where the variable-length loop must keep up with
+     * the fixed one, and the variable-length loop on code with 60% compressed instructions.
+     */
+    private void decodeBlocks() {
+        Random random = new Random(2);
+        int words = 1 << 20;
+        ByteBuffer fixed = ByteBuffer.allocate(words * 4).order(ByteOrder.LITTLE_ENDIAN);
+        ByteBuffer mixed = ByteBuffer.allocate(words * 4).order(ByteOrder.LITTLE_ENDIAN);
+        while (fixed.hasRemaining()) {
+            Object[] c = CLASSES[random.nextInt(CLASSES.length)];
+            int word = randomWord(random, (int[]) c[1], (int[]) c[2], (int[]) c[3]);
+            fixed.putInt(word);
+            if (random.nextInt(10) < 6) {
+                mixed.putShort((short) (random.nextInt() & ~1));
+            } else if (mixed.remaining() >= 4) {
+                mixed.putInt(word);
+            } else {
+                mixed.putShort((short) 1);
+            }
+        }
+        DecodedText text = new DecodedText(InstructionStream.BLOCK_SIZE);
+        measure("decode block 32-bit fixed", words, () -> {
+            long sum = 0;
+            for (int i = 0; i < words; i += InstructionStream.BLOCK_SIZE) {
+                text.decode(fixed, i * 4, i * 4, InstructionStream.BLOCK_SIZE);
+                sum += text.op[text.size - 1];
+            }
+            return sum;
+        });
+        int halves = words * 2;
+        measure("decode block 32-bit variable", words, () -> {
+            long sum = 0;
+            for (int i = 0; i < halves; ) {
+                i += text.decodeCompressed(fixed, i * 2, i * 2, Math.min(InstructionStream.BLOCK_SIZE, halves - i), halves - i);
+                sum += text.op[text.size - 1];
+            }
+            return sum;
+        });
+        measure("decode block RVC mixed", halves, () -> {
+            long sum = 0;
+            for (int i = 0; i < halves; ) {
+                i += text.decodeCompressed(mixed, i * 2, i * 2, Math.min(InstructionStream.BLOCK_SIZE, halves - i), halves - i);
+                sum += text.op[text.size - 1];
+            }
+            return sum;
+        });
+    }
+
+    /**
+     * Finding the jal and branch words of 32 MB of code by decoding every word, with the scalar
+     * pre-pass and with the vector one; units are bytes, so M units/s is MB/s.
+     */
+    private void opcodeScan() {
+        Random random = new Random(3);
+        int words = 1 << 23;
+        ByteBuffer text = ByteBuffer.allocateDirect(words * 4).order(ByteOrder.LITTLE_ENDIAN);
+        while (text.hasRemaining()) {
+            Object[] c = CLASSES[random.nextInt(CLASSES.length)];
+            text.putInt(randomWord(random, (int[]) c[1], (int[]) c[2], (int[]) c[3]));
+        }
+        measure("jumps by decoding every word", words * 4L, () -> {
+            long sum = 0;
+            for (int i = 0; i < words; i++) {
+                sum += DecodeTable.isJump(DecodeTable.FORMAT[DecodeTable.decode(text.getInt(i * 4))]) ? 1 : 0;
+            }
+            return sum;
+        });
+        measureScan("jumps by scalar pre-pass", text, words, OpcodeScan.SCALAR);
+        OpcodeScan vector = OpcodeScan.vector();
+        if (vector != null) {
+            measureScan("jumps by vector pre-pass", text, words, vector);
+        }
+    }
+
+    private void measureScan(String name, ByteBuffer text, int words, OpcodeScan scan) {
+        long[] marks = new long[OpcodeScan.BLOCK >>> 6];
+        measure(name, words * 4L, () -> {
+            long sum = 0;
+            for (int block = 0; block < words; block += OpcodeScan.BLOCK) {
+                Arrays.fill(marks, 0);
+                scan.scan(text, block * 4, Math.min(OpcodeScan.BLOCK, words - block), marks);
+                for (long bits : marks) {
+                    sum += Long.bitCount(bits);
+                }
+            }
+            return sum;
+        });
+    }
+
+    private void stages(Path input) throws IOException {
+        String file = input.getFileName().toString();
+        ByteBuffer bytes = ElfLoader.map(input.toString());
+        int words = bytes.limit() / 4;
+        measure("load " + file, 1, () -> ElfLoader.map(input.toString()).limit());
+        measure("field reads " + file, words, () -> {
+            long sum = 0;
+            for (int i = 0; i + 4 <= bytes.limit(); i += 4) {
+                sum += bytes.getInt(i);
+            }
+            return sum;
+        });
+        ElfParser settings = new ElfParser();
+        measure("sections " + file, 1, () -> {
+            new ElfParser.Disassembler(bytes, settings);
+            return 1;
+        });
+        measure("symtab " + file, 1, () -> {
+            new ElfParser.Disassembler(bytes, settings).parseSymTab();
+            return 1;
+        });
+        measure("labels " + file, 1, () -> {
+            ElfParser.Disassembler d = new ElfParser.Disassembler(bytes, settings);
+            d.parseSymTab();
+            d.collectLabels();
+            return 1;
+        });
+        measure("parseElf " + file, 1, () -> {
+            new ElfParser.Disassembler(bytes, settings).write(OutputStream.nullOutputStream());
+            return 1;
+        });
+    }
+
+    private void measure(String name, long units, Op op) {
+        if (!name.contains(filter)) {
+            return;
+        }
+        if (workloads != null) {
+            workloads.put(name, op);
+            return;
+        }
+        try {
+            for (int i = 0; i < WARMUP; i++) {
+                iteration(op);
+            }
+            double best = Double.MAX_VALUE;
+            double total = 0;
+            for (int i = 0; i < ITERATIONS; i++) {
+                double nanos = iteration(op);
+                best = Math.min(best, nanos);
+                total += nanos;
+            }
+            double mean = total / ITERATIONS;
+            String line = String.format("%-40s %14.1f ns/op  (best %12.1f)  %10.2f M units/s",
+                    name, mean, best, units * 1e3 / mean);
+            System.out.println(line);
+            results.add(line);
+        } catch (Exception e) {
+            System.out.println(name + " failed: " + e);
+        }
+    }
+
+    /**
+     * Runs {@code op} repeatedly for about {@link #ITERATION_NANOS} and returns the mean time of one call.
+     */
+    private static double iteration(Op op) throws Exception {
+        long start = System.nanoTime();
+        long calls = 0;
+        long now;
+        long sum = 0;
+        do {
+            sum += op.run();
+            calls++;
+            now = System.nanoTime();
+        } while (now - start < ITERATION_NANOS);
+        sink += sum;
+        return (double) (now - start) / calls;
+    }
+
+    private static int randomWord(Random random, int[] opcodes, int[] funct3, int[] funct7) {
+        int word = random.nextInt() & ~0x7f;
+        word |= opcodes[random.nextInt(opcodes.length)];
+        if (funct3 != null) {
+            word = (word & ~(0b111 << 12)) | (funct3[random.nextInt(funct3.length)] << 12);
+        }
+        if (funct7 != null) {
+            word = (word & 0x01ffffff) | (funct7[random.nextInt(funct7.length)] << 25);
+        }
+        return word;
+    }
+
+    /**
+     * An ELF32 file with {@code words} random RV32I/RV32M instructions in .text
+     * and {@code functions} FUNC symbols spread evenly over it.
+     */
+    static byte[] syntheticElf(int words, int functions, long seed) {
+        Random random = new Random(seed);
+        int textAddr = 0x10074;
+        int textOffset = 0x74;
+        byte[] names = "\0.text\0.symtab\0.strtab\0.shstrtab\0".getBytes();
+        ByteBuffer strtab = ByteBuffer.allocate(functions * 16 + 1);
+        strtab.put((byte) 0);
+        int textSize = words * 4;
+        int symtabOffset = textOffset + textSize;
+        int symtabSize = (functions + 1) * 16;
+        int strtabOffset = symtabOffset + symtabSize;
+        ByteBuffer elf = ByteBuffer.allocate(strtabOffset + strtab.capacity() + names.length + 3 + 5 * 40)
+                .order(ByteOrder.LITTLE_ENDIAN);
+
+        elf.position(textOffset);
+        for (int i = 0; i < words; i++) {
+            Object[] c = CLASSES[random.nextInt(CLASSES.length)];
+            elf.putInt(randomWord(random, (int[]) c[1], (int[]) c[2], (int[]) c[3]));
+        }
+        elf.position(symtabOffset + 16);
+        for (int i = 0; i < functions; i++) {
+            int name = strtab.position();
+            strtab.put(("f" + i + "\0").getBytes());
+            elf.putInt(name).putInt(textAddr + (int) ((long) i * words / functions) * 4).putInt(16)
+                    .put((byte) 0x12).put((byte) 0).putShort((short) 1);
+        }
+        int strtabSize = strtab.position();
+        elf.put(strtab.array(), 0, strtabSize);
+        int shstrtabOffset = elf.position();
+        elf.put(names);
+        int sectionsOffset = (elf.position() + 3) & ~3;
+
+        elf.position(0);
+        elf.put(new byte[]{0x7f, 'E', 'L', 'F', 1, 1, 1});
+        elf.position(16);
+        elf.putShort((short) 2).putShort((short) 0xf3).putInt(1).putInt(textAddr).putInt(0).putInt(sectionsOffset)
+                .putInt(0).putShort((short) 52).putShort((short) 0).putShort((short) 0)
+                .putShort((short) 40).putShort((short) 5).putShort((short) 4);
+
+        elf.position(sectionsOffset + 40);
+        section(elf, 1, 1, 6, textAddr, textOffset, textSize, 0, 4, 0);
+        section(elf, 7, 2, 0, 0, symtabOffset, symtabSize, 3, 4, 16);
+        section(elf, 15, 3, 0, 0, strtabOffset, strtabSize, 0, 1, 0);
+        section(elf, 23, 3, 0, 0, shstrtabOffset, names.length, 0, 1, 0);
+        byte[] result = new byte[elf.position()];
+        elf.get(0, result);
+        return result;
+    }
+
+    private static void section(ByteBuffer elf, int name, int type, int flags, int addr, int offset, int size,
+                                int link, int align, int entsize) {
+        elf.putInt(name).putInt(type).putInt(flags).putInt(addr).putInt(offset).putInt(size)
+                .putInt(link).putInt(0).putInt(align).putInt(entsize);
+    }
+}
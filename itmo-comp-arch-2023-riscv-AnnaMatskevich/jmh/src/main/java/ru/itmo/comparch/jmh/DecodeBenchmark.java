@@ -0,0 +1,43 @@
+package ru.itmo.comparch.jmh;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Decoding 4096 random words of one opcode class, named after the old per-opcode decoders,
+ * and the block decoders on 1M words: fixed 32-bit, variable-length on 32-bit code and on RVC code.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class DecodeBenchmark {
+    @Param({"decode LUI_AUIPC", "decode JAL", "decode JALR", "decode B", "decode L", "decode S", "decode ADDI_SRAI",
+            "decode ADD_AND", "decode block 32-bit fixed", "decode block 32-bit variable", "decode block RVC mixed"})
+    public String workload;
+
+    private LongSupplier op;
+
+    @Setup
+    public void setUp() throws ReflectiveOperationException {
+        op = Workloads.get(workload);
+    }
+
+    @Benchmark
+    public long decode() {
+        return op.getAsLong();
+    }
+}
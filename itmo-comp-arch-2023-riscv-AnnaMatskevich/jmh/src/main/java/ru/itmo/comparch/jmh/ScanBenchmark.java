@@ -0,0 +1,43 @@
+package ru.itmo.comparch.jmh;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Finding the jal and branch words of 32 MB of code: by decoding every word, with the scalar pre-pass
+ * and with the vector one. The vector case needs the disassembler built with {@code mvn install -Pvector};
+ * the forks get {@code --add-modules jdk.incubator.vector} either way.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector"})
+public class ScanBenchmark {
+    @Param({"jumps by decoding every word", "jumps by scalar pre-pass", "jumps by vector pre-pass"})
+    public String workload;
+
+    private LongSupplier op;
+
+    @Setup
+    public void setUp() throws ReflectiveOperationException {
+        op = Workloads.get(workload);
+    }
+
+    @Benchmark
+    public long scan() {
+        return op.getAsLong();
+    }
+}
@@ -0,0 +1,46 @@
+package ru.itmo.comparch.jmh;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * One stage of a run on one file: mapping it, reading its words, the section headers, the symbol table,
+ * label collection and the whole listing written to a null stream. The test ELFs are read from
+ * test_data, so run from the project directory; the synthetic ones have 1M and 8M instructions.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class StageBenchmark {
+    @Param({"load", "field reads", "sections", "symtab", "labels", "parseElf"})
+    public String stage;
+
+    @Param({"test.elf", "test2.elf", "test22.elf", "synthetic-1M.elf", "synthetic-8M.elf"})
+    public String file;
+
+    private LongSupplier op;
+
+    @Setup
+    public void setUp() throws ReflectiveOperationException {
+        op = Workloads.get(stage + " " + file);
+    }
+
+    @Benchmark
+    public long run() {
+        return op.getAsLong();
+    }
+}
@@ -0,0 +1,29 @@
+package ru.itmo.comparch.jmh;
+
+import java.util.Map;
+import java.util.function.LongSupplier;
+
+/**
+ * The workloads of bench/Bench. Bench and the disassembler are in the unnamed package, which code in a
+ * package cannot refer to, so they are looked up reflectively once per JVM; a benchmark then only calls
+ * a {@link LongSupplier} and returns its result to JMH.
+ */
+final class Workloads {
+    private static Map<String, LongSupplier> all;
+
+    private Workloads() {
+
+    }
+
+    @SuppressWarnings("unchecked")
+    static synchronized LongSupplier get(String name) throws ReflectiveOperationException {
+        if (all == null) {
+            all = (Map<String, LongSupplier>) Class.forName("Bench").getMethod("workloads").invoke(null);
+        }
+        LongSupplier workload = all.get(name);
+        if (workload == null) {
+            throw new IllegalArgumentException("no workload \"" + name + "\", there are " + all.keySet());
+        }
+        return workload;
+    }
+}
@@ -0,0 +1,136 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Checks the decoder against a stored listing of every RV32I/RV32M encoding. The ELF is generated here:
+ * every opcode and funct3, with all 128 funct7 values for OP and OP-IMM, where funct7 selects the
+ * instruction, and funct7 0, 1, 0x20 and 0x7f for the other instructions, where it is part of the immediate.
+ * Opcodes that are not RV32I get one word per funct3. Register fields are random with a fixed seed.
+ * <p>
+ * The reference {@code test_data/decode_table.txt} was written by the decoder before {@link DecodeTable};
+ * {@code --write} replaces it after an intended change of the output. Run from the project directory:
+ * <pre>
+ *   javac -d /tmp/check *.java test/*.java
+ *   java -cp /tmp/check DecodeTableCheck [--write]
+ * </pre>
+ */
+public class DecodeTableCheck {
+    private static final Path REFERENCE = Path.of("test_data", "decode_table.txt");
+    private static final int OP_IMM = 0b0010011;
+    private static final int OP = 0b0110011;
+    private static final int[] RV32I = {0b0110111, 0b0010111, 0b1101111, 0b1100111, 0b1100011, 0b0000011,
+            0b0100011, OP_IMM, OP, 0b0001111, 0b1110011};
+    // fence.tso, pause, fence iorw,iorw, ecall, ebreak, nop
+    private static final int[] WHOLE_WORDS = {0x8330000f, 0x0100000f, 0x0ff0000f, 0x00000073, 0x00100073, 0x00000013};
+    private static final int TEXT_ADDR = 0x10074;
+    private static final int TEXT_OFFSET = 0x74;
+
+    public static void main(String[] args) throws IOException {
+        Path elf = Files.createTempFile("decode-table", ".elf");
+        Path listing = Files.createTempFile("decode-table", ".txt");
+        try {
+            Files.write(elf, elf(words()));
+            new ElfParser().parse(elf.toString(), listing.toString());
+            if (args.length > 0 && args[0].equals("--write")) {
+                Files.copy(listing, REFERENCE, StandardCopyOption.REPLACE_EXISTING);
+                System.out.println("written " + REFERENCE);
+                return;
+            }
+            String[] expected = Files.readString(REFERENCE, StandardCharsets.UTF_8).split("\n", -1);
+            String[] actual = Files.readString(listing, StandardCharsets.UTF_8).split("\n", -1);
+            for (int i = 0; i < Math.max(expected.length, actual.length); i++) {
+                String want = i < expected.length ? expected[i] : "<end of listing>";
+                String got = i < actual.length ? actual[i] : "<end of listing>";
+                if (!want.equals(got)) {
+                    System.out.println(REFERENCE + ":" + (i + 1) + ": differs\n  expected: " + want + "\n  actual:   " + got);
+                    System.exit(1);
+                }
+            }
+            System.out.println("OK, " + actual.length + " lines match " + REFERENCE);
+        } finally {
+            Files.deleteIfExists(elf);
+            Files.deleteIfExists(listing);
+        }
+    }
+
+    private static int[] words() {
+        Random random = new Random(3);
+        int[] words = new int[1 << 14];
+        int n = 0;
+        for (int opcode = 0; opcode < 128; opcode++) {
+            int[] funct7;
+            if (opcode == OP || opcode == OP_IMM) {
+                funct7 = new int[128];
+                Arrays.setAll(funct7, i -> i);
+            } else if (isRv32i(opcode)) {
+                funct7 = new int[]{0, 1, 0b0100000, 0x7f};
+            } else {
+                funct7 = new int[]{0};
+            }
+            for (int funct3 = 0; funct3 < 8; funct3++) {
+                for (int f7 : funct7) {
+                    words[n++] = f7 << 25 | random.nextInt(32) << 20 | random.nextInt(32) << 15
+                            | funct3 << 12 | random.nextInt(32) << 7 | opcode;
+                }
+            }
+        }
+        for (int word : WHOLE_WORDS) {
+            words[n++] = word;
+        }
+        return Arrays.copyOf(words, n);
+    }
+
+    private static boolean isRv32i(int opcode) {
+        for (int o : RV32I) {
+            if (o == opcode) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * An ELF32 file with {@code words} in .text and one FUNC symbol covering them.
+     */
+    private static byte[] elf(int[] words) {
+        byte[] names = "\0.text\0.symtab\0.strtab\0.shstrtab\0".getBytes(StandardCharsets.US_ASCII);
+        byte[] strtab = "\0decode\0".getBytes(StandardCharsets.US_ASCII);
+        int textSize = words.length * 4;
+        int symtabOffset = TEXT_OFFSET + textSize;
+        int strtabOffset = symtabOffset + 32;
+        int shstrtabOffset = strtabOffset + strtab.length;
+        int sectionsOffset = (shstrtabOffset + names.length + 3) & ~3;
+        ByteBuffer elf = ByteBuffer.allocate(sectionsOffset + 5 * 40).order(ByteOrder.LITTLE_ENDIAN);
+        elf.put(new byte[]{0x7f, 'E', 'L', 'F', 1, 1, 1});
+        elf.position(16);
+        elf.putShort((short) 2).putShort((short) 0xf3).putInt(1).putInt(TEXT_ADDR).putInt(0).putInt(sectionsOffset)
+                .putInt(0).putShort((short) 52).putShort((short) 0).putShort((short) 0)
+                .putShort((short) 40).putShort((short) 5).putShort((short) 4);
+        elf.position(TEXT_OFFSET);
+        for (int word : words) {
+            elf.putInt(word);
+        }
+        elf.position(symtabOffset + 16);
+        elf.putInt(1).putInt(TEXT_ADDR).putInt(textSize).put((byte) 0x12).put((byte) 0).putShort((short) 1);
+        elf.put(strtab).put(names);
+        elf.position(sectionsOffset + 40);
+        section(elf, 1, 1, 6, TEXT_ADDR, TEXT_OFFSET, textSize, 0, 4, 0);
+        section(elf, 7, 2, 0, 0, symtabOffset, 32, 3, 4, 16);
+        section(elf, 15, 3, 0, 0, strtabOffset, strtab.length, 0, 1, 0);
+        section(elf, 23, 3, 0, 0, shstrtabOffset, names.length, 0, 1, 0);
+        return elf.array();
+    }
+
+    private static void section(ByteBuffer elf, int name, int type, int flags, int addr, int offset, int size,
+                                int link, int align, int entsize) {
+        elf.putInt(name).putInt(type).putInt(flags).putInt(addr).putInt(offset).putInt(size)
+                .putInt(link).putInt(0).putInt(align).putInt(entsize);
+    }
+}
@@ -0,0 +1,59 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * Checks that an incremental run over a corrupt {@code <output>.idx} falls back to a full run:
+ * the block count of a real index is replaced by a negative one, one too large to allocate and one
+ * more than the file holds, and each time the listing must come out the same as without the index.
+ * Run from the project directory:
+ * <pre>
+ *   javac -d /tmp/check *.java test/*.java
+ *   java -cp /tmp/check IncrementalIndexCheck
+ * </pre>
+ */
+public class IncrementalIndexCheck {
+    private static final Path INPUT = Path.of("test_data", "test.elf");
+    // after the magic, the version and the output size
+    private static final int COUNT_OFFSET = 16;
+
+    public static void main(String[] args) throws IOException {
+        Path dir = Files.createTempDirectory("incremental-index");
+        Path full = dir.resolve("full.txt");
+        Path output = dir.resolve("out.txt");
+        Path index = dir.resolve("out.txt.idx");
+        try {
+            new ElfParser().disassemble(INPUT.toString(), full.toString());
+            ElfParser parser = new ElfParser();
+            parser.setIncremental(true);
+            parser.disassemble(INPUT.toString(), output.toString());
+            byte[] valid = Files.readAllBytes(index);
+            int count = ByteBuffer.wrap(valid).getInt(COUNT_OFFSET);
+            for (int corrupt : new int[]{-1, Integer.MAX_VALUE, count + 1}) {
+                byte[] bytes = valid.clone();
+                ByteBuffer.wrap(bytes).putInt(COUNT_OFFSET, corrupt);
+                Files.write(index, bytes);
+                if (IncrementalIndex.read(index, output) != null) {
+                    fail("an index with " + corrupt + " blocks instead of " + count + " is read");
+                }
+                parser.disassemble(INPUT.toString(), output.toString());
+                if (!Arrays.equals(Files.readAllBytes(full), Files.readAllBytes(output))) {
+                    fail("the listing after an index with " + corrupt + " blocks differs from a full run");
+                }
+            }
+            System.out.println("OK, corrupt block counts of " + INPUT + ".idx fall back to a full run");
+        } finally {
+            for (Path file : new Path[]{full, output, index}) {
+                Files.deleteIfExists(file);
+            }
+            Files.deleteIfExists(dir);
+        }
+    }
+
+    private static void fail(String message) {
+        System.out.println(message);
+        System.exit(1);
+    }
+}
@@ -0,0 +1,37 @@
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * {@link OpcodeScan} that loads {@code SPECIES.length()} words at a time (8 with AVX2, 16 with AVX-512),
+ * masks their major opcodes and turns the two compares into mark bits without a branch per word.
+ * Needs {@code jdk.incubator.vector}, so it is compiled and loaded apart from the rest:
+ * <pre>
+ *   javac --add-modules jdk.incubator.vector -d out *.java vector/*.java
+ *   java --add-modules jdk.incubator.vector -cp out Main ...
+ * </pre>
+ */
+final class VectorOpcodeScan implements OpcodeScan {
+    private static final VectorSpecies<Integer> SPECIES = IntVector.SPECIES_PREFERRED;
+
+    @Override
+    public void scan(ByteBuffer bytes, int offset, int count, long[] marks) {
+        int lanes = SPECIES.length();
+        int i = 0;
+        // lanes divides 64, so the bits of one step never cross a long
+        for (; i <= count - lanes; i += lanes) {
+            IntVector major = IntVector.fromByteBuffer(SPECIES, bytes, offset + i * 4, ByteOrder.LITTLE_ENDIAN)
+                    .and(0x7f);
+            long bits = major.compare(VectorOperators.EQ, JAL).or(major.compare(VectorOperators.EQ, BRANCH)).toLong();
+            marks[i >>> 6] |= bits << i;
+        }
+        for (; i < count; i++) {
+            int word = bytes.getInt(offset + i * 4) & 0x7f;
+            if (word == JAL || word == BRANCH) {
+                marks[i >>> 6] |= 1L << i;
+            }
+        }
+    }
+}